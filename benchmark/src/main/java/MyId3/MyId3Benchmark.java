@@ -0,0 +1,92 @@
+package MyId3;
+
+import Util.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of MyId3 training and classification.
+ * MyId3 doesn't support missing values nor numeric attributes, so the data set is nominal and complete.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyId3Benchmark {
+
+    /**
+     * The shape of the generated data set, shared by every benchmark
+     */
+    @State(Scope.Benchmark)
+    public static class Data {
+
+        @Param({"1000", "100000"})
+        public int numRows;
+
+        @Param({"10", "50"})
+        public int numAttributes;
+
+        @Param({"2", "5"})
+        public int numClasses;
+
+        public Instances dataSet;
+
+        public MyId3 tree;
+
+        @Setup(Level.Trial)
+        public void generate() throws Exception {
+            dataSet = BenchmarkData.generate(numRows, numAttributes, numClasses, 0, false, 1);
+            tree = new MyId3();
+            tree.buildClassifier(dataSet);
+        }
+    }
+
+    /**
+     * Position of the next row to classify
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        public int next;
+
+        public Instance nextInstance(Instances dataSet) {
+            Instance instance = dataSet.instance(next);
+            next = (next + 1) % dataSet.numInstances();
+            return instance;
+        }
+    }
+
+    @Benchmark
+    public MyId3 buildClassifier(Data data) throws Exception {
+        MyId3 tree = new MyId3();
+        tree.buildClassifier(data.dataSet);
+        return tree;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double classifyInstance(Data data, Cursor cursor) throws Exception {
+        return data.tree.classifyInstance(cursor.nextInstance(data.dataSet));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double[] distributionForInstance(Data data, Cursor cursor) throws Exception {
+        return data.tree.distributionForInstance(cursor.nextInstance(data.dataSet));
+    }
+}
@@ -0,0 +1,214 @@
+package MyJ48;
+
+import Util.BenchmarkData;
+import Util.ColumnarDataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the MyJ48 hot paths: training, the numeric split search, pruning, the pessimistic
+ * error estimate and classification. Lives in package MyJ48 to reach the package-private growTree
+ * and pruneTree hooks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyJ48Benchmark {
+
+    /**
+     * The shape of the generated data set, shared by every benchmark
+     */
+    @State(Scope.Benchmark)
+    public static class Data {
+
+        @Param({"1000", "100000"})
+        public int numRows;
+
+        @Param({"10", "50"})
+        public int numAttributes;
+
+        @Param({"2", "5"})
+        public int numClasses;
+
+        @Param({"0", "0.1"})
+        public double missingRate;
+
+        @Param({"true", "false"})
+        public boolean numeric;
+
+        public Instances dataSet;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            dataSet = BenchmarkData.generate(numRows, numAttributes, numClasses, missingRate, numeric, 1);
+        }
+    }
+
+    /**
+     * The split search used for training, 0 bins is the exact search
+     */
+    @State(Scope.Benchmark)
+    public static class Training {
+
+        @Param({"0", "256"})
+        public int numHistogramBins;
+    }
+
+    /**
+     * A tree trained once on the data set, for the classification benchmarks
+     */
+    @State(Scope.Benchmark)
+    public static class Trained {
+
+        public MyJ48 tree;
+
+        @Setup(Level.Trial)
+        public void train(Data data) throws Exception {
+            tree = new MyJ48();
+            tree.buildClassifier(data.dataSet);
+        }
+    }
+
+    /**
+     * A presorted row set over numeric data, for the numeric split search
+     */
+    @State(Scope.Benchmark)
+    public static class NumericRows {
+
+        @Param({"1000", "100000"})
+        public int numRows;
+
+        @Param({"2", "5"})
+        public int numClasses;
+
+        @Param({"0", "0.1"})
+        public double missingRate;
+
+        public RowSet rows;
+
+        public double totalWeight;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            rows = new RowSet(new ColumnarDataSet(BenchmarkData.generate(numRows, 1, numClasses, missingRate, true, 1)));
+            rows.presortNumericAttributes();
+            totalWeight = rows.sumOfWeights();
+        }
+    }
+
+    /**
+     * A grown but unpruned tree, grown again before every pruning since pruning changes the tree
+     */
+    @State(Scope.Thread)
+    public static class Unpruned {
+
+        public MyJ48 tree;
+
+        @Setup(Level.Invocation)
+        public void grow(Data data) throws Exception {
+            tree = new MyJ48();
+            tree.growTree(new ColumnarDataSet(data.dataSet));
+        }
+    }
+
+    /**
+     * Error estimate arguments spread like the node and leaf weights of a tree
+     */
+    @State(Scope.Benchmark)
+    public static class ErrorArguments {
+
+        public double [] totalWeights = new double[1024];
+
+        public double [] numIncorrects = new double[1024];
+
+        public ErrorCalculator errorCalculator = new ErrorCalculator(0.25);
+
+        @Setup(Level.Trial)
+        public void generate() {
+            Random random = new Random(1);
+            for(int i=0; i<totalWeights.length; i++)
+            {
+                totalWeights[i] = 1 + random.nextInt(1000);
+                numIncorrects[i] = random.nextInt(4) == 0 ? random.nextDouble() : random.nextDouble() * totalWeights[i];
+            }
+        }
+    }
+
+    /**
+     * Position of the next row to classify
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        public int next;
+
+        public Instance nextInstance(Instances dataSet) {
+            Instance instance = dataSet.instance(next);
+            next = (next + 1) % dataSet.numInstances();
+            return instance;
+        }
+    }
+
+    @Benchmark
+    public MyJ48 buildClassifier(Data data, Training training) throws Exception {
+        MyJ48 tree = new MyJ48();
+        tree.setNumHistogramBins(training.numHistogramBins);
+        tree.buildClassifier(data.dataSet);
+        return tree;
+    }
+
+    /**
+     * Splitable.buildClassifier on a numeric attribute is the numeric split search (processNumericAttribute)
+     */
+    @Benchmark
+    public Splitable processNumericAttribute(NumericRows numericRows) {
+        Splitable splitable = new Splitable(numericRows.rows.getDataSet().attribute(0), 2, numericRows.totalWeight);
+        splitable.buildClassifier(numericRows.rows);
+        return splitable;
+    }
+
+    @Benchmark
+    public MyJ48 pruneTree(Unpruned unpruned) {
+        unpruned.tree.pruneTree();
+        return unpruned.tree;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void calculateError(ErrorArguments arguments, Blackhole blackhole) {
+        for(int i=0; i<arguments.totalWeights.length; i++)
+        {
+            blackhole.consume(arguments.errorCalculator.calculateError(arguments.totalWeights[i], arguments.numIncorrects[i]));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double classifyInstance(Data data, Trained trained, Cursor cursor) throws Exception {
+        return trained.tree.classifyInstance(cursor.nextInstance(data.dataSet));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double[] distributionForInstance(Data data, Trained trained, Cursor cursor) throws Exception {
+        return trained.tree.distributionForInstance(cursor.nextInstance(data.dataSet));
+    }
+}
@@ -0,0 +1,36 @@
+package Util;
+
+import weka.core.Instances;
+
+/**
+ * Data sets for the benchmarks, generated by DataGenerator with a planted tree and some label noise
+ * so the trees grow past the root.
+ */
+public class BenchmarkData {
+
+    /**
+     * Generate a data set, the class is the last attribute
+     * @param numRows number of rows
+     * @param numAttributes number of attributes, not counting the class
+     * @param numClasses number of class values
+     * @param missingRate probability of each attribute value to be missing
+     * @param numeric true for numeric attributes, false for nominal attributes
+     * @param seed
+     * @return
+     */
+    public static Instances generate(int numRows, int numAttributes, int numClasses, double missingRate, boolean numeric, long seed)
+    {
+        DataGenerator generator = new DataGenerator();
+        generator.setNumRows(numRows);
+        generator.setNumNominalAttributes(numeric ? 0 : numAttributes);
+        generator.setNumNumericAttributes(numeric ? numAttributes : 0);
+        generator.setMinCardinality(4);
+        generator.setMaxCardinality(4);
+        generator.setNumClasses(numClasses);
+        generator.setMissingRate(missingRate);
+        generator.setLabelNoise(0.1);
+        generator.setConceptDepth(Math.min(numAttributes, 6));
+        generator.setSeed(seed);
+        return generator.generate();
+    }
+}
@@ -0,0 +1,22 @@
+package Util;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the GC profiler, so every result also reports the allocation rate.
+ * Takes the usual JMH command line, e.g. "MyJ48Benchmark.pruneTree -p numRows=10000".
+ */
+public class BenchmarkRunner {
+
+    public static void main(String [] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,416 @@
+package MyId3;
+
+import Util.BatchScorer;
+import weka.core.Instance;
+import weka.core.NoSupportForMissingValuesException;
+
+import java.io.Serializable;
+
+/**
+ * A trained MyId3 flattened into arrays, for fast classification.
+ * Nodes are numbered breadth first so the children of a node are stored next to each other.
+ * When the attributes used by the tree have few enough value combinations, the leaf of every combination is
+ * also precomputed into a lookup table, so a row is classified without walking the tree.
+ * Created with MyId3.compile().
+ */
+public class CompiledId3 implements Serializable {
+
+    /**
+     * Attribute index used for splitting at each node, -1 if the node is a leaf
+     */
+    private final int[] attributeIndex;
+
+    /**
+     * For an internal node the index of its first child, the child of value v is at childOffset + v.
+     * For a leaf the index of its leaf in leafClass and leafDistribution.
+     */
+    private final int[] childOffset;
+
+    /**
+     * Class value of each leaf
+     */
+    private final double[] leafClass;
+
+    /**
+     * Class distribution of each leaf, numClasses values per leaf
+     */
+    private final double[] leafDistribution;
+
+    /**
+     * Number of class values
+     */
+    private final int numClasses;
+
+    /**
+     * Attributes used by the tree, the digits of a lookup table index. NULL if there is no lookup table.
+     */
+    private int[] tableAttributes;
+
+    /**
+     * Weight of each digit of a lookup table index, the product of the number of values of the previous attributes
+     */
+    private int[] tableStrides;
+
+    /**
+     * Leaf index of every combination of values of the table attributes
+     */
+    private int[] leafTable;
+
+    /**
+     * @param attributeIndex
+     * @param childOffset
+     * @param numChilds number of children of each node, the number of values of its split attribute
+     * @param leafClass
+     * @param leafDistribution
+     * @param numClasses
+     * @param lookupTableBudget maximal number of entries of the lookup table, no table is built if more are needed
+     */
+    CompiledId3(int[] attributeIndex, int[] childOffset, int[] numChilds, double[] leafClass, double[] leafDistribution,
+                int numClasses, int lookupTableBudget)
+    {
+        this.attributeIndex = attributeIndex;
+        this.childOffset = childOffset;
+        this.leafClass = leafClass;
+        this.leafDistribution = leafDistribution;
+        this.numClasses = numClasses;
+        buildLookupTable(numChilds, lookupTableBudget);
+    }
+
+    /**
+     * Precompute the leaf of every combination of values of the attributes used by the tree, in a dense
+     * mixed radix array, if there are at most lookupTableBudget combinations
+     * @param numChilds
+     * @param lookupTableBudget
+     */
+    private void buildLookupTable(int[] numChilds, int lookupTableBudget)
+    {
+        /* A budget of 0 disables the table, even for a tree that is a single leaf */
+        if(lookupTableBudget <= 0)
+        {
+            return;
+        }
+
+        /* Number of values of every attribute used for splitting, 0 for the others */
+        int numAttributes = 0;
+        for(int node=0; node<attributeIndex.length; node++)
+        {
+            numAttributes = Math.max(numAttributes, attributeIndex[node] + 1);
+        }
+        int [] numValues = new int[numAttributes];
+        int numUsed = 0;
+        long tableSize = 1;
+        for(int node=0; node<attributeIndex.length; node++)
+        {
+            if(attributeIndex[node] >= 0 && numValues[attributeIndex[node]] == 0)
+            {
+                numValues[attributeIndex[node]] = numChilds[node];
+                numUsed++;
+                tableSize = tableSize * numChilds[node];
+                if(tableSize > lookupTableBudget)
+                {
+                    return;
+                }
+            }
+        }
+
+        tableAttributes = new int[numUsed];
+        tableStrides = new int[numUsed];
+        int [] strideOfAttribute = new int[numAttributes];
+        int stride = 1;
+        int k = 0;
+        for(int a=0; a<numAttributes; a++)
+        {
+            if(numValues[a] > 0)
+            {
+                tableAttributes[k] = a;
+                tableStrides[k] = stride;
+                strideOfAttribute[a] = stride;
+                stride = stride * numValues[a];
+                k++;
+            }
+        }
+
+        /* Walk the tree once per combination, the value of an attribute is its digit of the index */
+        leafTable = new int[(int) tableSize];
+        for(int index=0; index<leafTable.length; index++)
+        {
+            int node = 0;
+            while(attributeIndex[node] >= 0)
+            {
+                int a = attributeIndex[node];
+                node = childOffset[node] + (index / strideOfAttribute[a]) % numValues[a];
+            }
+            leafTable[index] = childOffset[node];
+        }
+    }
+
+    /**
+     * Check whether the leaves are found with the lookup table
+     * @return
+     */
+    boolean hasLookupTable()
+    {
+        return leafTable != null;
+    }
+
+    /**
+     * Find the leaf reached by an instance
+     * @param instance
+     * @return leaf index
+     * @throws NoSupportForMissingValuesException if an attribute used on the path is missing
+     */
+    private int findLeaf(Instance instance) throws NoSupportForMissingValuesException {
+        if(leafTable != null)
+        {
+            int index = 0;
+            for(int k=0; k<tableAttributes.length; k++)
+            {
+                double value = instance.value(tableAttributes[k]);
+                if(Instance.isMissingValue(value))
+                {
+                    /* The tree may not need this value, or tells that it does */
+                    index = -1;
+                    break;
+                }
+                index += (int) value * tableStrides[k];
+            }
+            if(index >= 0)
+            {
+                return leafTable[index];
+            }
+        }
+        int node = 0;
+        while(attributeIndex[node] >= 0)
+        {
+            double value = instance.value(attributeIndex[node]);
+            if(Instance.isMissingValue(value))
+            {
+                throw new NoSupportForMissingValuesException("MyId3.MyId3 can't support missing values!");
+            }
+            node = childOffset[node] + (int) value;
+        }
+        return childOffset[node];
+    }
+
+    /**
+     * Find the leaf reached by a row of attribute values, indexed like the training data set's attributes
+     * @param values
+     * @return leaf index
+     * @throws NoSupportForMissingValuesException if an attribute used on the path is missing
+     */
+    private int findLeaf(double[] values) throws NoSupportForMissingValuesException {
+        if(leafTable != null)
+        {
+            int index = 0;
+            for(int k=0; k<tableAttributes.length; k++)
+            {
+                double value = values[tableAttributes[k]];
+                if(Instance.isMissingValue(value))
+                {
+                    index = -1;
+                    break;
+                }
+                index += (int) value * tableStrides[k];
+            }
+            if(index >= 0)
+            {
+                return leafTable[index];
+            }
+        }
+        int node = 0;
+        while(attributeIndex[node] >= 0)
+        {
+            double value = values[attributeIndex[node]];
+            if(Instance.isMissingValue(value))
+            {
+                throw new NoSupportForMissingValuesException("MyId3.MyId3 can't support missing values!");
+            }
+            node = childOffset[node] + (int) value;
+        }
+        return childOffset[node];
+    }
+
+    /**
+     * Find the leaf reached by a row of a batch stored column by column
+     * @param columns values of each attribute, indexed like the training data set's attributes
+     * @param row
+     * @return leaf index
+     * @throws NoSupportForMissingValuesException if an attribute used on the path is missing
+     */
+    private int findLeaf(double[][] columns, int row) throws NoSupportForMissingValuesException {
+        if(leafTable != null)
+        {
+            int index = 0;
+            for(int k=0; k<tableAttributes.length; k++)
+            {
+                double value = columns[tableAttributes[k]][row];
+                if(Instance.isMissingValue(value))
+                {
+                    index = -1;
+                    break;
+                }
+                index += (int) value * tableStrides[k];
+            }
+            if(index >= 0)
+            {
+                return leafTable[index];
+            }
+        }
+        int node = 0;
+        while(attributeIndex[node] >= 0)
+        {
+            double value = columns[attributeIndex[node]][row];
+            if(Instance.isMissingValue(value))
+            {
+                throw new NoSupportForMissingValuesException("MyId3.MyId3 can't support missing values!");
+            }
+            node = childOffset[node] + (int) value;
+        }
+        return childOffset[node];
+    }
+
+    /**
+     * Classify given instance
+     * @param instance
+     * @return Class Value for the instance
+     * @throws NoSupportForMissingValuesException
+     */
+    public double classifyInstance(Instance instance) throws NoSupportForMissingValuesException {
+        return leafClass[findLeaf(instance)];
+    }
+
+    /**
+     * Classify a row of attribute values
+     * @param values attribute values, indexed like the training data set's attributes
+     * @return Class Value for the row
+     * @throws NoSupportForMissingValuesException
+     */
+    public double classify(double[] values) throws NoSupportForMissingValuesException {
+        return leafClass[findLeaf(values)];
+    }
+
+    /**
+     * Return the class distribution for the given instance
+     * @param instance
+     * @return
+     * @throws NoSupportForMissingValuesException
+     */
+    public double[] distributionForInstance(Instance instance) throws NoSupportForMissingValuesException {
+        double [] distribution = new double[numClasses];
+        System.arraycopy(leafDistribution, findLeaf(instance) * numClasses, distribution, 0, numClasses);
+        return distribution;
+    }
+
+    /**
+     * Write the class distribution of a row of attribute values into a caller supplied array
+     * @param values attribute values, indexed like the training data set's attributes
+     * @param distribution array of at least numClasses values
+     * @throws NoSupportForMissingValuesException
+     */
+    public void distribution(double[] values, double[] distribution) throws NoSupportForMissingValuesException {
+        System.arraycopy(leafDistribution, findLeaf(values) * numClasses, distribution, 0, numClasses);
+    }
+
+    /**
+     * Classify a batch of rows
+     * @param rows attribute values of each row, indexed like the training data set's attributes
+     * @param classes receives the class value of each row
+     * @param numThreads number of threads scoring the batch
+     * @throws Exception
+     */
+    public void classifyBatch(final double[][] rows, final double[] classes, int numThreads) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) throws Exception {
+                for(int i=from; i<to; i++)
+                {
+                    classes[i] = leafClass[findLeaf(rows[i])];
+                }
+            }
+        }.score(rows.length, numThreads);
+    }
+
+    /**
+     * Compute the class distribution of a batch of rows
+     * @param rows attribute values of each row, indexed like the training data set's attributes
+     * @param distributions receives the class distribution of each row, numClasses values per row
+     * @param numThreads number of threads scoring the batch
+     * @throws Exception
+     */
+    public void distributionBatch(final double[][] rows, final double[][] distributions, int numThreads) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) throws Exception {
+                for(int i=from; i<to; i++)
+                {
+                    distribution(rows[i], distributions[i]);
+                }
+            }
+        }.score(rows.length, numThreads);
+    }
+
+    /**
+     * Classify a batch of rows stored column by column
+     * @param columns values of each attribute, indexed like the training data set's attributes (unused columns may be NULL)
+     * @param classes receives the class value of each row, its length is the number of rows
+     * @param numThreads number of threads scoring the batch
+     * @throws Exception
+     */
+    public void classifyColumns(final double[][] columns, final double[] classes, int numThreads) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) throws Exception {
+                for(int i=from; i<to; i++)
+                {
+                    classes[i] = leafClass[findLeaf(columns, i)];
+                }
+            }
+        }.score(classes.length, numThreads);
+    }
+
+    /**
+     * Compute the class distribution of a batch of rows stored column by column
+     * @param columns values of each attribute, indexed like the training data set's attributes (unused columns may be NULL)
+     * @param distributions receives the class distribution of each row, its length is the number of rows
+     * @param numThreads number of threads scoring the batch
+     * @throws Exception
+     */
+    public void distributionColumns(final double[][] columns, final double[][] distributions, int numThreads) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) throws Exception {
+                for(int i=from; i<to; i++)
+                {
+                    System.arraycopy(leafDistribution, findLeaf(columns, i) * numClasses, distributions[i], 0, numClasses);
+                }
+            }
+        }.score(distributions.length, numThreads);
+    }
+
+    /**
+     * Return the number of nodes of the tree
+     * @return
+     */
+    public int numNodes()
+    {
+        return attributeIndex.length;
+    }
+
+    /**
+     * Return the number of class values
+     * @return
+     */
+    public int numClasses()
+    {
+        return numClasses;
+    }
+
+    /**
+     * Return the number of entries of the lookup table, 0 if the table would exceed the budget
+     * @return
+     */
+    public int lookupTableSize()
+    {
+        return leafTable == null ? 0 : leafTable.length;
+    }
+}
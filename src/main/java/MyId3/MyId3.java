@@ -1,17 +1,27 @@
 package MyId3;
 
+import Util.BuildTimer;
+import Util.ColumnarDataSet;
+import Util.FlatTree;
+import Util.FoldTrainable;
+import Util.RowDeduplicator;
 import Util.Util;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.trees.Id3;
 import weka.core.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by timothy.pratama on 21-Sep-15.
  */
-public class MyId3 extends Classifier {
+public class MyId3 extends Classifier implements FoldTrainable {
 
     /**
      * Childs from an MyId3.MyId3 Node
@@ -43,6 +53,51 @@ public class MyId3 extends Classifier {
      */
     private double mostCommonClassValue;
 
+    /**
+     * Number of threads used to build sibling subtrees and to score batches, 1 means everything is sequential
+     */
+    private int numExecutionSlots = 1;
+
+    /**
+     * Subtrees with at least this many instances are built as separate tasks, smaller ones are built inline
+     */
+    private int parallelSubtreeThreshold = 5000;
+
+    /**
+     * The pool building the tree, only alive while the tree is built
+     */
+    private transient ForkJoinPool pool;
+
+    /**
+     * Measure the work done while building the tree, to report the achieved parallel speedup
+     */
+    private BuildTimer buildTimer;
+
+    /**
+     * The compiled tree used for batch scoring, created on the first batch
+     */
+    private transient CompiledId3 compiledModel;
+
+    /**
+     * The header of the training data set, kept by the root for the binary model format
+     */
+    private Instances header;
+
+    /**
+     * Whether identical rows are collapsed into a single weighted row before building the tree
+     */
+    private boolean deduplicateRows = false;
+
+    /**
+     * Whether the tree is built from a bitmap index of the data set instead of the instances
+     */
+    private boolean useBitmapIndex = false;
+
+    /**
+     * Maximal number of entries of the lookup table of the compiled tree, 0 disables the table
+     */
+    private int lookupTableBudget = 1 << 16;
+
 
     /**
      * Build MyId3.MyId3 model with the given data set
@@ -54,157 +109,745 @@ public class MyId3 extends Classifier {
         /* Make sure that there are no continues value are entered! */
         getCapabilities().testWithFail(instances);
 
-        /* Delete all instances with missing class */
-        /* not useful for building tree */
-        Instances data = new Instances(instances);
-        data.deleteWithMissingClass();
+        buildTree(new ColumnarDataSet(instances));
+    }
+
+    /**
+     * Build MyId3.MyId3 model with a data set stored in columns, which takes several times less memory than the
+     * instances. The data set can be read straight from a file with ColumnarDataSet.readArff.
+     * @param columns Data set for building the classifier, the class attribute must be set
+     * @throws Exception
+     */
+    public void buildClassifier(ColumnarDataSet columns) throws Exception {
+        /* Make sure that there are no continues value are entered! */
+        columns.testWithFail(getCapabilities());
+
+        buildTree(columns);
+    }
+
+    /**
+     * Build the tree from a data set already checked against the capabilities
+     * @param columns
+     * @throws Exception
+     */
+    private void buildTree(ColumnarDataSet columns) throws Exception {
+        /* The bitmap index counts rows, it can only be used if every weight is 1. Its popcounts already count
+           the copies of a row 64 at a time, so the rows are not collapsed for it: that would give them weights. */
+        boolean bitmapIndex = useBitmapIndex && columns.hasUnitWeights();
+        if(deduplicateRows && !bitmapIndex)
+        {
+            columns = new RowDeduplicator(columns).getColumns();
+        }
 
-        /* Find the most commmon value for the given data set */
+        RowBitmaps bitmaps = null;
+        int [] rows = null;
+        int numRows = 0;
         double mostCommonClassValue;
-        double [] classDistribution = new double[data.numClasses()];
-        Enumeration dataEnum = data.enumerateInstances();
-        while(dataEnum.hasMoreElements())
+        if(bitmapIndex)
         {
-            Instance instance = (Instance) dataEnum.nextElement();
-            classDistribution[((int) instance.classValue())] ++;
+            /* Rows with missing class are left out of the index's rows */
+            bitmaps = new RowBitmaps(columns);
+            mostCommonClassValue = Utils.maxIndex(bitmaps.countClasses(bitmaps.getAllRows()));
         }
-        mostCommonClassValue = Utils.maxIndex(classDistribution);
+        else
+        {
+            /* Instances with missing class are not useful for building tree */
+            rows = new int[columns.numRows()];
+            for(int i=0; i<columns.numRows(); i++)
+            {
+                if(!columns.classIsMissing(i))
+                {
+                    rows[numRows] = i;
+                    numRows++;
+                }
+            }
 
-        createTree(data, mostCommonClassValue);
+            /* Find the most commmon value for the given data set */
+            mostCommonClassValue = Utils.maxIndex(computeClassCounts(columns, rows, 0, numRows));
+        }
+
+        if(numExecutionSlots > 1)
+        {
+            pool = new ForkJoinPool(numExecutionSlots);
+        }
+        compiledModel = null;
+        header = new Instances(columns.getHeader(), 0);
+        buildTimer = new BuildTimer(numExecutionSlots > 1);
+        buildTimer.start();
+        try
+        {
+            if(bitmaps != null)
+            {
+                createTree(bitmaps, bitmaps.getAllRows(), mostCommonClassValue, new boolean[columns.numAttributes()]);
+            }
+            else
+            {
+                createTree(columns, rows, 0, numRows, mostCommonClassValue, new boolean[columns.numAttributes()]);
+            }
+        }
+        finally
+        {
+            buildTimer.stop();
+            if(pool != null)
+            {
+                pool.shutdown();
+                pool = null;
+            }
+        }
     }
 
     /**
-     * Create the decision tree based on the given data set
-     * @param dataSet
+     * Create the decision tree based on a range of rows of the data set
+     * @param columns the whole data set
+     * @param rows row indices, the rows of this node being [start, end). Reordered by the split of the node.
+     * @param start
+     * @param end
      * @param mostCommonClassValue
+     * @param usedAttributes attributes that have already been used for splitting on the path to this node
      */
-    private void createTree(Instances dataSet, double mostCommonClassValue)
+    private void createTree(ColumnarDataSet columns, int[] rows, int start, int end, double mostCommonClassValue,
+                            boolean[] usedAttributes)
     {
+        long startTime = buildTimer.startWork();
+        int [] subsetBounds = null;
+        boolean [] childUsedAttributes = null;
+
         /* Several variables initialization */
-        classAttribute = dataSet.classAttribute();
-        classDistribution = new double[dataSet.numClasses()];
+        childs = null;
+        classAttribute = columns.getHeader().classAttribute();
+        classDistribution = new double[columns.numClasses()];
 
         /* Check if there is no instances for this node -> possibly missing examples case */
-        if(dataSet.numInstances() == 0)
+        if(start == end)
         {
             splitAttribute = null;
             classValue = mostCommonClassValue;
         }
-        else /* dataSet.numInstances() > 0 */
+        else /* end > start */
         {
-            /* Compute each attribute information gain */
-            double infoGains [] = new double[dataSet.numAttributes()];
-            Enumeration attributeEnumeration = dataSet.enumerateAttributes();
-            while(attributeEnumeration.hasMoreElements())
+            /* Compute every attribute's contingency table in a single pass over the rows */
+            double [][][] contingencyTables = computeContingencyTables(columns, rows, start, end, usedAttributes);
+            double [] nodeClassCounts = computeClassCounts(columns, rows, start, end);
+
+            if(chooseSplit(columns.getHeader(), nodeClassCounts, contingencyTables)) /* Split the rows by attribute, make new tree */
             {
-                Attribute attribute = (Attribute) attributeEnumeration.nextElement();
-                double infoGain = computeInfoGain(dataSet, attribute);
-                infoGains[attribute.index()] = infoGain;
+                subsetBounds = splitRowsByAttribute(columns, rows, start, end, splitAttribute);
+                childUsedAttributes = usedAttributes.clone();
+                childUsedAttributes[splitAttribute.index()] = true;
+                childs = new MyId3[splitAttribute.numValues()];
             }
+        }
+        buildTimer.endWork(startTime);
 
-            splitAttribute = dataSet.attribute(Utils.maxIndex(infoGains));
+        if(childs != null)
+        {
+            createChilds(columns, rows, subsetBounds, mostCommonClassValue, childUsedAttributes);
+        }
+    }
 
-            //This node is a leaf, the data sets only have 1 class.
-            if(Utils.eq(infoGains[splitAttribute.index()],0))
+    /**
+     * Build the subtree of every subset of rows. Sibling subtrees are independent, so the large ones
+     * are built as separate tasks when there is a pool, and the small ones inline.
+     * @param columns
+     * @param rows
+     * @param subsetBounds the rows of child i are [subsetBounds[i], subsetBounds[i+1])
+     * @param mostCommonClassValue
+     * @param childUsedAttributes
+     */
+    private void createChilds(final ColumnarDataSet columns, final int[] rows, final int[] subsetBounds,
+                              final double mostCommonClassValue, final boolean[] childUsedAttributes)
+    {
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for(int i=0; i<childs.length; i++)
+        {
+            final MyId3 child = new MyId3();
+            final int childIndex = i;
+            child.numExecutionSlots = numExecutionSlots;
+            child.parallelSubtreeThreshold = parallelSubtreeThreshold;
+            child.lookupTableBudget = lookupTableBudget;
+            child.pool = pool;
+            child.buildTimer = buildTimer;
+            childs[i] = child;
+            if(pool != null && subsetBounds[i + 1] - subsetBounds[i] >= parallelSubtreeThreshold)
             {
-                splitAttribute = null;
-                Enumeration instancesEnumeration = dataSet.enumerateInstances();
-                while(instancesEnumeration.hasMoreElements())
-                {
-                    Instance instance = (Instance) instancesEnumeration.nextElement();
-                    classDistribution[((int) instance.classValue())]++;
-                }
-                Utils.normalize(classDistribution);
-                classValue = Utils.maxIndex(classDistribution);
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        child.createTree(columns, rows, subsetBounds[childIndex], subsetBounds[childIndex + 1],
+                                mostCommonClassValue, childUsedAttributes);
+                        child.pool = null;
+                        child.buildTimer = null;
+                    }
+                });
+            }
+            else
+            {
+                child.createTree(columns, rows, subsetBounds[i], subsetBounds[i + 1], mostCommonClassValue, childUsedAttributes);
+                child.pool = null;
+                child.buildTimer = null;
+            }
+        }
+        if(!tasks.isEmpty())
+        {
+            Util.invokeAll(pool, tasks);
+        }
+    }
 
+    /**
+     * Choose the attribute with the highest information gain to split this node, or make this node a leaf
+     * if no attribute gains any information
+     * @param dataSet data set of the current node, only its attributes are used
+     * @param nodeClassCounts weight of the node's instances per class
+     * @param contingencyTables contingency table per attribute index, NULL for the attributes that can't be used
+     * @return true if the node is split on splitAttribute, false if it is a leaf
+     */
+    private boolean chooseSplit(Instances dataSet, double[] nodeClassCounts, double[][][] contingencyTables)
+    {
+        double totalWeight = Utils.sum(nodeClassCounts);
+        double initialEntropy = computeEntropy(nodeClassCounts, totalWeight);
+
+        /* Compute each attribute information gain */
+        /* Attributes already used on the path only have one value left, so their gain stays 0 */
+        double infoGains [] = new double[dataSet.numAttributes()];
+        Enumeration attributeEnumeration = dataSet.enumerateAttributes();
+        while(attributeEnumeration.hasMoreElements())
+        {
+            Attribute attribute = (Attribute) attributeEnumeration.nextElement();
+            if(contingencyTables[attribute.index()] != null)
+            {
+                infoGains[attribute.index()] = computeInfoGain(initialEntropy, contingencyTables[attribute.index()], totalWeight);
             }
-            else /* Split the data by attribute, make new tree */
+        }
+
+        splitAttribute = dataSet.attribute(Utils.maxIndex(infoGains));
+
+        //This node is a leaf, the data sets only have 1 class.
+        if(Utils.eq(infoGains[splitAttribute.index()],0))
+        {
+            splitAttribute = null;
+            System.arraycopy(nodeClassCounts, 0, classDistribution, 0, nodeClassCounts.length);
+            Utils.normalize(classDistribution);
+            classValue = Utils.maxIndex(classDistribution);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Create the decision tree from a bitmap index, the same tree as built from the indexed rows
+     * @param bitmaps index of the whole data set
+     * @param rows rows of the index reaching this node
+     * @param mostCommonClassValue
+     * @param usedAttributes attributes that have already been used for splitting on the path to this node
+     */
+    private void createTree(RowBitmaps bitmaps, RowBitmaps.Rows rows, double mostCommonClassValue, boolean[] usedAttributes)
+    {
+        long startTime = buildTimer.startWork();
+        RowBitmaps.Rows[] subRows = null;
+        boolean [] childUsedAttributes = null;
+
+        /* Several variables initialization */
+        childs = null;
+        classAttribute = bitmaps.getHeader().classAttribute();
+        classDistribution = new double[bitmaps.getHeader().numClasses()];
+
+        /* Check if there is no instances for this node -> possibly missing examples case */
+        if(rows.numRows == 0)
+        {
+            splitAttribute = null;
+            classValue = mostCommonClassValue;
+        }
+        else
+        {
+            double [][][] contingencyTables = bitmaps.computeContingencyTables(rows, usedAttributes);
+            double [] nodeClassCounts = bitmaps.countClasses(rows);
+
+            if(chooseSplit(bitmaps.getHeader(), nodeClassCounts, contingencyTables))
             {
-                Instances[] subDataSet = splitDataByAttribute(dataSet, splitAttribute);
+                subRows = bitmaps.split(rows, splitAttribute.index());
+                childUsedAttributes = usedAttributes.clone();
+                childUsedAttributes[splitAttribute.index()] = true;
                 childs = new MyId3[splitAttribute.numValues()];
-                for(int i=0; i<splitAttribute.numValues(); i++)
-                {
-                    childs[i] = new MyId3();
-                    childs[i].createTree(subDataSet[i], mostCommonClassValue);
-                }
             }
         }
+        buildTimer.endWork(startTime);
+
+        if(childs != null)
+        {
+            createChilds(bitmaps, subRows, mostCommonClassValue, childUsedAttributes);
+        }
+    }
+
+    /**
+     * Build the subtree of every subset of rows of a bitmap index, like createChilds for row ranges
+     * @param bitmaps
+     * @param subRows
+     * @param mostCommonClassValue
+     * @param childUsedAttributes
+     */
+    private void createChilds(final RowBitmaps bitmaps, final RowBitmaps.Rows[] subRows, final double mostCommonClassValue,
+                              final boolean[] childUsedAttributes)
+    {
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for(int i=0; i<childs.length; i++)
+        {
+            final MyId3 child = new MyId3();
+            final int childIndex = i;
+            child.numExecutionSlots = numExecutionSlots;
+            child.parallelSubtreeThreshold = parallelSubtreeThreshold;
+            child.lookupTableBudget = lookupTableBudget;
+            child.pool = pool;
+            child.buildTimer = buildTimer;
+            childs[i] = child;
+            if(pool != null && subRows[i].numRows >= parallelSubtreeThreshold)
+            {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        child.createTree(bitmaps, subRows[childIndex], mostCommonClassValue, childUsedAttributes);
+                        child.pool = null;
+                        child.buildTimer = null;
+                    }
+                });
+            }
+            else
+            {
+                child.createTree(bitmaps, subRows[i], mostCommonClassValue, childUsedAttributes);
+                child.pool = null;
+                child.buildTimer = null;
+            }
+        }
+        if(!tasks.isEmpty())
+        {
+            Util.invokeAll(pool, tasks);
+        }
     }
 
     /**
-     * Compute the infogain for the current data set for certain attribute
-     * @param dataSet data set that is going to be used to compute the info gain
-     * @param attribute attribute whose info gain are going to be computed
+     * Build the trees of every cross-validation fold together. The rows reaching a node are counted once for all the
+     * folds whose trees share the node's path, the counts of a fold being the counts of all these rows minus the counts
+     * of the fold's own rows. The rows are only counted again where the trees of the folds choose different splits.
+     * @param data data set already randomized (and stratified), fold i being data.testCV(numFolds, i)
+     * @param numFolds
+     * @return the tree of each fold, the same as the tree built from data.trainCV(numFolds, i),
+     * NULL if an instance weight is not a whole number
+     * @throws Exception
+     */
+    @Override
+    public Classifier[] buildFoldClassifiers(Instances data, int numFolds) throws Exception {
+        getCapabilities().testWithFail(data);
+        if(numFolds < 2)
+        {
+            throw new IllegalArgumentException("Number of folds must be at least 2!");
+        }
+        if(numFolds > data.numInstances())
+        {
+            throw new IllegalArgumentException("Can't have more folds than instances!");
+        }
+
+        /* The rows of a fold are consecutive, the first folds get one more row like in Instances.testCV */
+        int [] foldOfRow = new int[data.numInstances()];
+        int position = 0;
+        for(int i=0; i<numFolds; i++)
+        {
+            int foldSize = data.numInstances() / numFolds + (i < data.numInstances() % numFolds ? 1 : 0);
+            for(int j=0; j<foldSize; j++)
+            {
+                foldOfRow[position] = i;
+                position++;
+            }
+        }
+
+        /* The counts of a fold are only exact, and the trees the same as trained on each fold, for whole weights */
+        ColumnarDataSet columns = new ColumnarDataSet(data);
+        for(int i=0; i<columns.numRows(); i++)
+        {
+            double weight = columns.weight(i);
+            if(weight <= 0 || weight != Math.rint(weight))
+            {
+                return null;
+            }
+        }
+
+        /* Instances with missing class are not used for building trees */
+        int [] rows = new int[columns.numRows()];
+        int numRows = 0;
+        double [] classCounts = new double[columns.numClasses()];
+        double [][] foldClassCounts = new double[numFolds][columns.numClasses()];
+        for(int i=0; i<columns.numRows(); i++)
+        {
+            if(!columns.classIsMissing(i))
+            {
+                rows[numRows] = i;
+                numRows++;
+                classCounts[columns.classValue(i)] += columns.weight(i);
+                foldClassCounts[foldOfRow[i]][columns.classValue(i)] += columns.weight(i);
+            }
+        }
+
+        MyId3 [] trees = new MyId3[numFolds];
+        int [] folds = new int[numFolds];
+        double [] mostCommonClassValues = new double[numFolds];
+        for(int i=0; i<numFolds; i++)
+        {
+            trees[i] = newFoldTree();
+            trees[i].header = new Instances(data, 0);
+            folds[i] = i;
+            mostCommonClassValues[i] = Utils.maxIndex(subtract(classCounts, foldClassCounts[i]));
+        }
+        createFoldTrees(columns, foldOfRow, trees, folds, Arrays.copyOf(rows, numRows), mostCommonClassValues,
+                new boolean[columns.numAttributes()]);
+        return trees;
+    }
+
+    /**
+     * Create an empty node of a fold tree with the options of this classifier
      * @return
      */
-    private double computeInfoGain(Instances dataSet, Attribute attribute)
+    private MyId3 newFoldTree()
     {
-        /* Info gain: Initial entropy - final entropy */
-        /* Compute initial entropy */
+        MyId3 tree = new MyId3();
+        tree.numExecutionSlots = numExecutionSlots;
+        tree.parallelSubtreeThreshold = parallelSubtreeThreshold;
+        tree.lookupTableBudget = lookupTableBudget;
+        return tree;
+    }
 
-        double initialEntropi = computeEntropy(dataSet);
+    /**
+     * Build the nodes of several fold trees sharing the same path, the same way createTree builds a node
+     * @param columns the whole data set
+     * @param foldOfRow fold of each row of the data set
+     * @param trees node of each fold, only the folds in folds are used
+     * @param folds the folds whose trees share this path
+     * @param rows the rows on this path, from every fold
+     * @param mostCommonClassValues most common class of each fold's training set
+     * @param usedAttributes attributes that have already been used for splitting on the path
+     */
+    private void createFoldTrees(ColumnarDataSet columns, int[] foldOfRow, MyId3[] trees, int[] folds, int[] rows,
+                                 double[] mostCommonClassValues, boolean[] usedAttributes)
+    {
+        Instances data = columns.getHeader();
+        int numAttributes = data.numAttributes();
+        int numClasses = data.numClasses();
 
-        Instances [] subDataSet = splitDataByAttribute(dataSet, attribute);
+        /* Slot of each fold in the fold counts, -1 for the folds that are not on this path */
+        int [] foldSlots = new int[trees.length];
+        Arrays.fill(foldSlots, -1);
+        for(int i=0; i<folds.length; i++)
+        {
+            foldSlots[folds[i]] = i;
+        }
 
-        double [] entropies = new double[attribute.numValues()];
-        for(int i=0; i<attribute.numValues(); i++)
+        int [] candidateAttributes = new int[numAttributes];
+        int numCandidates = 0;
+        double [][][] contingencyTables = new double[numAttributes][][];
+        for(int a=0; a<numAttributes; a++)
+        {
+            if(a != data.classIndex() && !usedAttributes[a])
+            {
+                contingencyTables[a] = new double[data.attribute(a).numValues()][numClasses];
+                candidateAttributes[numCandidates] = a;
+                numCandidates++;
+            }
+        }
+
+        /* Count the rows once for every fold, a fold only gets its own tables if some of its rows are on this path */
+        double [] classCounts = new double[numClasses];
+        double [][] foldClassCounts = new double[folds.length][];
+        double [][][][] foldContingencyTables = new double[folds.length][][][];
+        for(int r=0; r<rows.length; r++)
         {
-            if(subDataSet[i].numInstances() > 0)
+            int row = rows[r];
+            int classIndex = columns.classValue(row);
+            double weight = columns.weight(row);
+            int slot = foldSlots[foldOfRow[row]];
+            classCounts[classIndex] += weight;
+            for(int j=0; j<numCandidates; j++)
             {
-                entropies[i] = computeEntropy(subDataSet[i]);
+                int attributeIndex = candidateAttributes[j];
+                contingencyTables[attributeIndex][columns.nominalValue(row, attributeIndex)][classIndex] += weight;
+            }
+            if(slot >= 0)
+            {
+                if(foldClassCounts[slot] == null)
+                {
+                    foldClassCounts[slot] = new double[numClasses];
+                    foldContingencyTables[slot] = new double[numAttributes][][];
+                    for(int j=0; j<numCandidates; j++)
+                    {
+                        int attributeIndex = candidateAttributes[j];
+                        foldContingencyTables[slot][attributeIndex] = new double[data.attribute(attributeIndex).numValues()][numClasses];
+                    }
+                }
+                foldClassCounts[slot][classIndex] += weight;
+                for(int j=0; j<numCandidates; j++)
+                {
+                    int attributeIndex = candidateAttributes[j];
+                    foldContingencyTables[slot][attributeIndex][columns.nominalValue(row, attributeIndex)][classIndex] += weight;
+                }
+            }
+        }
+
+        /* Choose the split of each fold from its training counts, all counts minus the fold's counts.
+         * The folds without rows on this path all have the same counts, their gains are computed once. */
+        int [] splitAttributes = new int[folds.length];
+        double [] sharedInfoGains = null;
+        for(int i=0; i<folds.length; i++)
+        {
+            MyId3 tree = trees[folds[i]];
+            tree.childs = null;
+            tree.classAttribute = data.classAttribute();
+            tree.classDistribution = new double[numClasses];
+            splitAttributes[i] = -1;
+
+            boolean hasRows = foldClassCounts[i] != null;
+            double [] nodeClassCounts = hasRows ? subtract(classCounts, foldClassCounts[i]) : classCounts;
+            double numInstances = Utils.sum(nodeClassCounts);
+            if(numInstances == 0)
+            {
+                tree.splitAttribute = null;
+                tree.classValue = mostCommonClassValues[folds[i]];
+                continue;
+            }
+
+            double [] infoGains;
+            if(hasRows)
+            {
+                infoGains = computeFoldInfoGains(contingencyTables, foldContingencyTables[i], nodeClassCounts, numInstances);
             }
             else
             {
-                entropies[i] = 0;
+                if(sharedInfoGains == null)
+                {
+                    sharedInfoGains = computeFoldInfoGains(contingencyTables, null, nodeClassCounts, numInstances);
+                }
+                infoGains = sharedInfoGains;
+            }
+
+            tree.splitAttribute = data.attribute(Utils.maxIndex(infoGains));
+            if(Utils.eq(infoGains[tree.splitAttribute.index()],0))
+            {
+                tree.splitAttribute = null;
+                System.arraycopy(nodeClassCounts, 0, tree.classDistribution, 0, numClasses);
+                Utils.normalize(tree.classDistribution);
+                tree.classValue = Utils.maxIndex(tree.classDistribution);
+            }
+            else
+            {
+                splitAttributes[i] = tree.splitAttribute.index();
+                tree.childs = new MyId3[tree.splitAttribute.numValues()];
             }
         }
 
-        double infoGain = initialEntropi;
-        for(int i=0; i<attribute.numValues(); i++)
+        /* The folds splitting on the same attribute keep sharing their paths */
+        boolean [] done = new boolean[folds.length];
+        for(int i=0; i<folds.length; i++)
         {
-            infoGain = infoGain - ((double)subDataSet[i].numInstances()/(double)dataSet.numInstances()*entropies[i]);
+            if(splitAttributes[i] < 0 || done[i])
+            {
+                continue;
+            }
+            Attribute attribute = data.attribute(splitAttributes[i]);
+            int [] groupFolds = new int[folds.length];
+            int numGroupFolds = 0;
+            for(int j=i; j<folds.length; j++)
+            {
+                if(splitAttributes[j] == splitAttributes[i])
+                {
+                    done[j] = true;
+                    groupFolds[numGroupFolds] = folds[j];
+                    numGroupFolds++;
+                }
+            }
+            groupFolds = Arrays.copyOf(groupFolds, numGroupFolds);
+
+            /* Split the rows by the attribute's value.
+             * A path left to a single fold doesn't need the fold's own rows anymore. */
+            int excludedFold = numGroupFolds == 1 ? groupFolds[0] : -1;
+            int [] subSizes = new int[attribute.numValues()];
+            for(int r=0; r<rows.length; r++)
+            {
+                if(foldOfRow[rows[r]] != excludedFold)
+                {
+                    subSizes[columns.nominalValue(rows[r], attribute.index())]++;
+                }
+            }
+            int [][] subRows = new int[attribute.numValues()][];
+            for(int v=0; v<attribute.numValues(); v++)
+            {
+                subRows[v] = new int[subSizes[v]];
+                subSizes[v] = 0;
+            }
+            for(int r=0; r<rows.length; r++)
+            {
+                if(foldOfRow[rows[r]] != excludedFold)
+                {
+                    int v = columns.nominalValue(rows[r], attribute.index());
+                    subRows[v][subSizes[v]] = rows[r];
+                    subSizes[v]++;
+                }
+            }
+
+            boolean [] childUsedAttributes = usedAttributes.clone();
+            childUsedAttributes[attribute.index()] = true;
+            for(int v=0; v<attribute.numValues(); v++)
+            {
+                MyId3 [] childTrees = new MyId3[trees.length];
+                for(int j=0; j<numGroupFolds; j++)
+                {
+                    childTrees[groupFolds[j]] = newFoldTree();
+                    trees[groupFolds[j]].childs[v] = childTrees[groupFolds[j]];
+                }
+                createFoldTrees(columns, foldOfRow, childTrees, groupFolds, subRows[v], mostCommonClassValues, childUsedAttributes);
+            }
         }
+    }
 
-        return infoGain;
+    /**
+     * Compute the infogain of every candidate attribute of a fold
+     * @param contingencyTables contingency tables of all the rows, NULL for the attributes that can't be used
+     * @param foldContingencyTables contingency tables of the fold's rows, NULL if the fold has no rows
+     * @param classCounts number of training instances of the fold per class
+     * @param totalInstances number of training instances of the fold
+     * @return infogain per attribute index, 0 for the attributes that can't be used
+     */
+    private double[] computeFoldInfoGains(double[][][] contingencyTables, double[][][] foldContingencyTables,
+                                          double[] classCounts, double totalInstances)
+    {
+        double initialEntropy = computeEntropy(classCounts, totalInstances);
+        double [] infoGains = new double[contingencyTables.length];
+        for(int a=0; a<contingencyTables.length; a++)
+        {
+            if(contingencyTables[a] != null)
+            {
+                double [][] contingencyTable = contingencyTables[a];
+                if(foldContingencyTables != null)
+                {
+                    contingencyTable = new double[contingencyTables[a].length][];
+                    for(int v=0; v<contingencyTable.length; v++)
+                    {
+                        contingencyTable[v] = subtract(contingencyTables[a][v], foldContingencyTables[a][v]);
+                    }
+                }
+                infoGains[a] = computeInfoGain(initialEntropy, contingencyTable, totalInstances);
+            }
+        }
+        return infoGains;
     }
 
     /**
-     * Compute the entropy from a given data set
-     * @param subDataSet Data set whose entropi to be computed
-     * @return entropy from the data set
+     * Subtract the counts of a fold from the counts of all the folds
+     * @param counts
+     * @param foldCounts
+     * @return
      */
-    private double computeEntropy(Instances subDataSet)
+    private static double[] subtract(double[] counts, double[] foldCounts)
     {
-        /* Entropy = -(p1 log2 p1 + p2 log2 p2 + ...) */
-        double totalInstances = subDataSet.numInstances();
-        double totalClasses = subDataSet.numClasses();
-        double [] classDistributions = new double[subDataSet.numClasses()];
+        double [] result = new double[counts.length];
+        for(int i=0; i<counts.length; i++)
+        {
+            result[i] = counts[i] - foldCounts[i];
+        }
+        return result;
+    }
 
-        /* Compute each class number of instances */
-        Enumeration instancesEnumeration = subDataSet.enumerateInstances();
-        while(instancesEnumeration.hasMoreElements())
+    /**
+     * Build an attribute value x class contingency table for every attribute that can still be used for splitting.
+     * All the tables are filled in a single pass over the rows.
+     * @param columns the whole data set
+     * @param rows row indices, the rows of the current node being [start, end)
+     * @param start
+     * @param end
+     * @param usedAttributes attributes that have already been used on the path to this node
+     * @return contingency table per attribute index, NULL for the class attribute and the used attributes
+     */
+    private double[][][] computeContingencyTables(ColumnarDataSet columns, int[] rows, int start, int end, boolean[] usedAttributes)
+    {
+        double [][][] contingencyTables = new double[columns.numAttributes()][][];
+        int [] candidateAttributes = new int[columns.numAttributes()];
+        int numCandidates = 0;
+
+        for(int i=0; i<columns.numAttributes(); i++)
+        {
+            if(i != columns.classIndex() && !usedAttributes[i])
+            {
+                contingencyTables[i] = new double[columns.getHeader().attribute(i).numValues()][columns.numClasses()];
+                candidateAttributes[numCandidates] = i;
+                numCandidates++;
+            }
+        }
+
+        for(int i=start; i<end; i++)
         {
-            Instance data = (Instance) instancesEnumeration.nextElement();
-            classDistributions[((int) data.classValue())]++;
+            int row = rows[i];
+            int classIndex = columns.classValue(row);
+            double weight = columns.weight(row);
+            for(int j=0; j<numCandidates; j++)
+            {
+                int attributeIndex = candidateAttributes[j];
+                contingencyTables[attributeIndex][columns.nominalValue(row, attributeIndex)][classIndex] += weight;
+            }
         }
+        return contingencyTables;
+    }
 
-        /* Compute probability for each class */
-        for(int i = 0; i < totalClasses; i++)
+    /**
+     * Sum the weights of the rows of each class
+     * @param columns the whole data set
+     * @param rows row indices, the rows to count being [start, end)
+     * @param start
+     * @param end
+     * @return weight of the rows per class
+     */
+    private double[] computeClassCounts(ColumnarDataSet columns, int[] rows, int start, int end)
+    {
+        double [] classCounts = new double[columns.numClasses()];
+        for(int i=start; i<end; i++)
         {
-            classDistributions[i] = classDistributions[i] / totalInstances;
+            classCounts[columns.classValue(rows[i])] += columns.weight(rows[i]);
         }
+        return classCounts;
+    }
 
-        /* compute the p * log2 p for each class */
-        for(int i = 0; i < totalClasses; i++)
+    /**
+     * Compute the infogain of an attribute from its contingency table
+     * @param initialEntropy entropy of the current data set
+     * @param contingencyTable weight of the instances per attribute value and class
+     * @param totalInstances total weight of the current data set
+     * @return
+     */
+    private double computeInfoGain(double initialEntropy, double[][] contingencyTable, double totalInstances)
+    {
+        /* Info gain: Initial entropy - final entropy */
+        double infoGain = initialEntropy;
+        for(int i=0; i<contingencyTable.length; i++)
         {
-            classDistributions[i] = classDistributions[i] * log2(classDistributions[i]);
+            double subsetInstances = Utils.sum(contingencyTable[i]);
+            double entropy = 0;
+            if(subsetInstances > 0)
+            {
+                entropy = computeEntropy(contingencyTable[i], subsetInstances);
+            }
+            infoGain = infoGain - (subsetInstances/totalInstances*entropy);
         }
 
-        /* compute the sum of p * log2 p */
+        return infoGain;
+    }
+
+    /**
+     * Compute the entropy from the number of instances of each class
+     * @param classCounts number of instances of each class
+     * @param totalInstances total number of instances
+     * @return entropy from the class counts
+     */
+    private double computeEntropy(double[] classCounts, double totalInstances)
+    {
+        /* Entropy = -(p1 log2 p1 + p2 log2 p2 + ...) */
         double sum = 0;
-        for(int i=0; i<totalClasses; i++)
+        for(int i = 0; i < classCounts.length; i++)
         {
-            sum = sum + classDistributions[i];
+            double p = classCounts[i] / totalInstances;
+            sum = sum + (p * log2(p));
         }
 
         /* return the -1 * (sum of p *log2 p) */
@@ -231,34 +874,109 @@ public class MyId3 extends Classifier {
     }
 
     /**
-     * this method is use to divide a data set base on each value from an attribute
-     * @param dataSet data Set to be splitted
+     * this method is use to divide the rows of a node base on each value from an attribute.
+     * The rows are reordered in place (stable), each value's rows being a range of the node's range.
+     * @param columns the whole data set
+     * @param rows row indices, the rows to split being [start, end)
+     * @param start
+     * @param end
      * @param attribute Attribute that is used to split
-     * @return Instances that has been filtered based on the attribute's value
+     * @return the bounds of each value's range, the rows of value i being [bounds[i], bounds[i+1])
      */
-    private Instances[] splitDataByAttribute(Instances dataSet, Attribute attribute)
+    private int[] splitRowsByAttribute(ColumnarDataSet columns, int[] rows, int start, int end, Attribute attribute)
     {
-        /* Create several sub data set based on the possible values of an attribute */
-        Instances [] subDataSet = new Instances [attribute.numValues()];
+        /* Count the rows of each value, to find where each value's range starts */
+        int [] bounds = new int[attribute.numValues() + 1];
+        for(int i=start; i<end; i++)
+        {
+            bounds[columns.nominalValue(rows[i], attribute.index()) + 1]++;
+        }
+        bounds[0] = start;
         for(int i=0; i<attribute.numValues(); i++)
         {
-            subDataSet[i] = new Instances(dataSet, dataSet.numInstances());
+            bounds[i + 1] += bounds[i];
         }
 
-        /* Cluster each data set with the same attribute value */
-        Enumeration instancesEnumeration = dataSet.enumerateInstances();
-        while(instancesEnumeration.hasMoreElements())
+        /* Cluster the rows with the same attribute value, keeping their order */
+        int [] position = Arrays.copyOf(bounds, attribute.numValues());
+        int [] sortedRows = new int[end - start];
+        for(int i=start; i<end; i++)
         {
-            Instance instance = (Instance) instancesEnumeration.nextElement();
-            subDataSet[((int) instance.value(attribute))].add(instance);
+            int value = columns.nominalValue(rows[i], attribute.index());
+            sortedRows[position[value] - start] = rows[i];
+            position[value]++;
         }
+        System.arraycopy(sortedRows, 0, rows, start, sortedRows.length);
+        return bounds;
+    }
 
-        /* Return the empty array from each data set */
-        for(int i=0; i<attribute.numValues(); i++)
+    /**
+     * Flatten the trained tree into arrays for fast classification
+     * @return the compiled model
+     * @throws Exception if no model has been built yet
+     */
+    public CompiledId3 compile() throws Exception {
+        FlatTree tree = flatten();
+        return new CompiledId3(tree.attributeIndex, tree.firstChild, tree.numChilds, tree.leafClass, tree.leafDistribution,
+                tree.numClasses(), lookupTableBudget);
+    }
+
+    /**
+     * Flatten the trained tree into arrays, nodes numbered breadth first so the children of a node are next to each other
+     * @return
+     * @throws Exception if no model has been built yet
+     */
+    public FlatTree flatten() throws Exception {
+        if ((classDistribution == null) && (childs == null)) {
+            throw new Exception("MyId3: No model built yet.");
+        }
+
+        List<MyId3> nodes = new ArrayList<MyId3>();
+        int numLeaves = 0;
+        nodes.add(this);
+        for(int i=0; i<nodes.size(); i++)
         {
-            subDataSet[i].compactify();
+            MyId3 node = nodes.get(i);
+            if(node.splitAttribute == null)
+            {
+                numLeaves++;
+            }
+            else
+            {
+                for(int j=0; j<node.childs.length; j++)
+                {
+                    nodes.add(node.childs[j]);
+                }
+            }
+        }
+
+        FlatTree tree = new FlatTree(header, nodes.size(), numLeaves, false);
+        int numClasses = tree.numClasses();
+        int nextChild = 1;
+        int nextLeaf = 0;
+        for(int i=0; i<nodes.size(); i++)
+        {
+            MyId3 node = nodes.get(i);
+            tree.splitPoint[i] = Double.NaN;
+            if(node.splitAttribute == null)
+            {
+                tree.kind[i] = FlatTree.LEAF;
+                tree.attributeIndex[i] = -1;
+                tree.firstChild[i] = nextLeaf;
+                tree.leafClass[nextLeaf] = node.classValue;
+                System.arraycopy(node.classDistribution, 0, tree.leafDistribution, nextLeaf * numClasses, numClasses);
+                nextLeaf++;
+            }
+            else
+            {
+                tree.kind[i] = FlatTree.NOMINAL_SPLIT;
+                tree.attributeIndex[i] = node.splitAttribute.index();
+                tree.firstChild[i] = nextChild;
+                tree.numChilds[i] = node.childs.length;
+                nextChild += node.childs.length;
+            }
         }
-        return subDataSet;
+        return tree;
     }
 
     /**
@@ -322,6 +1040,161 @@ public class MyId3 extends Classifier {
         return result;
     }
 
+    /**
+     * Return the compiled tree used for batch scoring, compiling it the first time
+     * @return
+     * @throws Exception
+     */
+    private CompiledId3 getCompiledModel() throws Exception {
+        if(compiledModel == null)
+        {
+            compiledModel = compile();
+        }
+        return compiledModel;
+    }
+
+    /**
+     * Classify a batch of rows, in blocks spread over numExecutionSlots threads
+     * @param rows attribute values of each row, indexed like the training data set's attributes
+     * @param out receives the class value of each row
+     * @throws Exception
+     */
+    public void classifyBatch(double[][] rows, double[] out) throws Exception {
+        getCompiledModel().classifyBatch(rows, out, numExecutionSlots);
+    }
+
+    /**
+     * Compute the class distribution of a batch of rows, in blocks spread over numExecutionSlots threads
+     * @param rows attribute values of each row, indexed like the training data set's attributes
+     * @param out receives the class distribution of each row
+     * @throws Exception
+     */
+    public void distributionBatch(double[][] rows, double[][] out) throws Exception {
+        getCompiledModel().distributionBatch(rows, out, numExecutionSlots);
+    }
+
+    /**
+     * Classify a batch of rows stored column by column
+     * @param columns values of each attribute, indexed like the training data set's attributes (unused columns may be NULL)
+     * @param out receives the class value of each row, its length is the number of rows
+     * @throws Exception
+     */
+    public void classifyColumns(double[][] columns, double[] out) throws Exception {
+        getCompiledModel().classifyColumns(columns, out, numExecutionSlots);
+    }
+
+    /**
+     * Compute the class distribution of a batch of rows stored column by column
+     * @param columns values of each attribute, indexed like the training data set's attributes (unused columns may be NULL)
+     * @param out receives the class distribution of each row, its length is the number of rows
+     * @throws Exception
+     */
+    public void distributionColumns(double[][] columns, double[][] out) throws Exception {
+        getCompiledModel().distributionColumns(columns, out, numExecutionSlots);
+    }
+
+    /**
+     * Set the number of threads used to build sibling subtrees
+     * @param numExecutionSlots
+     */
+    public void setNumExecutionSlots(int numExecutionSlots) {
+        this.numExecutionSlots = numExecutionSlots;
+    }
+
+    /**
+     * Return the number of threads used to build sibling subtrees
+     * @return
+     */
+    public int getNumExecutionSlots() {
+        return numExecutionSlots;
+    }
+
+    /**
+     * Set the minimal number of instances for a subtree to be built as a separate task
+     * @param parallelSubtreeThreshold
+     */
+    public void setParallelSubtreeThreshold(int parallelSubtreeThreshold) {
+        this.parallelSubtreeThreshold = parallelSubtreeThreshold;
+    }
+
+    /**
+     * Return the minimal number of instances for a subtree to be built as a separate task
+     * @return
+     */
+    public int getParallelSubtreeThreshold() {
+        return parallelSubtreeThreshold;
+    }
+
+    /**
+     * Set whether identical rows are collapsed into a single weighted row before building the tree.
+     * Ignored when the tree is built from the bitmap index, the two options don't combine.
+     * @param deduplicateRows
+     */
+    public void setDeduplicateRows(boolean deduplicateRows) {
+        this.deduplicateRows = deduplicateRows;
+    }
+
+    /**
+     * Return whether identical rows are collapsed into a single weighted row before building the tree
+     * @return
+     */
+    public boolean getDeduplicateRows() {
+        return deduplicateRows;
+    }
+
+    /**
+     * Set whether the tree is built from a bitmap index of the data set: one bitmap of rows per attribute value and
+     * class, nodes being counted and split with AND and popcount instead of scanning and copying instances.
+     * The index is only used when every weight is 1, the tree is the same. It takes precedence over deduplicateRows,
+     * the rows are not collapsed since that would give them weights.
+     * @param useBitmapIndex
+     */
+    public void setUseBitmapIndex(boolean useBitmapIndex) {
+        this.useBitmapIndex = useBitmapIndex;
+    }
+
+    /**
+     * Return whether the tree is built from a bitmap index of the data set
+     * @return
+     */
+    public boolean getUseBitmapIndex() {
+        return useBitmapIndex;
+    }
+
+    /**
+     * Set the maximal number of entries of the lookup table precomputed by compile(), 0 never builds one.
+     * Trees whose attributes have more value combinations are classified by walking the tree.
+     * @param lookupTableBudget
+     */
+    public void setLookupTableBudget(int lookupTableBudget) {
+        this.lookupTableBudget = lookupTableBudget;
+        compiledModel = null;
+    }
+
+    /**
+     * Return the maximal number of entries of the lookup table precomputed by compile()
+     * @return
+     */
+    public int getLookupTableBudget() {
+        return lookupTableBudget;
+    }
+
+    /**
+     * Return the speedup achieved by the last build, 1 for a sequential build
+     * @return
+     */
+    public double getParallelSpeedup() {
+        return buildTimer == null ? 1 : buildTimer.getSpeedup();
+    }
+
+    /**
+     * Return the timing of the last build
+     * @return
+     */
+    public BuildTimer getBuildTimer() {
+        return buildTimer;
+    }
+
     @Override
     public String getRevision() {
         return super.getRevision();
@@ -0,0 +1,285 @@
+package MyId3;
+
+import Util.ColumnarDataSet;
+import weka.core.Instances;
+
+import java.util.Arrays;
+
+/**
+ * Bitmap index of a nominal data set: one bitmap of rows per attribute value and per class value, bit i of a bitmap
+ * being row i of the data set. The bitmaps are built in a single pass over the data set, after which the rows of a
+ * tree node are counted and split with AND and popcount operations on 64 rows at a time, without touching the columns.
+ * The counts are numbers of rows, so the index can only replace the columns when every weight is 1.
+ */
+class RowBitmaps {
+
+    /**
+     * A set of rows of the indexed data set. Only the non-empty 64-row words are kept, so the rows of a deep node
+     * take no more space than their number.
+     */
+    static class Rows {
+
+        /**
+         * Index of each non-empty word, increasing
+         */
+        final int[] words;
+
+        /**
+         * Bits of each non-empty word
+         */
+        final long[] bits;
+
+        /**
+         * Number of rows in the set
+         */
+        final int numRows;
+
+        Rows(int[] words, long[] bits, int numRows)
+        {
+            this.words = words;
+            this.bits = bits;
+            this.numRows = numRows;
+        }
+    }
+
+    /**
+     * The data set without its instances, for the attributes
+     */
+    private final Instances header;
+
+    /**
+     * Rows of each attribute value, per attribute index then value. NULL for the class attribute.
+     */
+    private final long[][][] valueBitmaps;
+
+    /**
+     * Rows of each class value
+     */
+    private final long[][] classBitmaps;
+
+    /**
+     * The indexed data set, for counting the words with few rows one row at a time
+     */
+    private final ColumnarDataSet columns;
+
+    /**
+     * The rows with a class value, the only ones used for building trees
+     */
+    private final Rows allRows;
+
+    /**
+     * Index every row of a nominal data set without missing attribute values
+     * @param columns
+     */
+    RowBitmaps(ColumnarDataSet columns)
+    {
+        this.columns = columns;
+        header = columns.getHeader();
+        int numWords = (columns.numRows() + 63) >>> 6;
+        valueBitmaps = new long[columns.numAttributes()][][];
+        for(int i=0; i<columns.numAttributes(); i++)
+        {
+            if(i != columns.classIndex())
+            {
+                valueBitmaps[i] = new long[header.attribute(i).numValues()][numWords];
+            }
+        }
+        classBitmaps = new long[columns.numClasses()][numWords];
+
+        long [] known = new long[numWords];
+        for(int i=0; i<columns.numRows(); i++)
+        {
+            if(columns.classIsMissing(i))
+            {
+                continue;
+            }
+            int word = i >>> 6;
+            long bit = 1L << (i & 63);
+            known[word] |= bit;
+            classBitmaps[columns.classValue(i)][word] |= bit;
+            for(int j=0; j<valueBitmaps.length; j++)
+            {
+                if(valueBitmaps[j] != null)
+                {
+                    valueBitmaps[j][columns.nominalValue(i, j)][word] |= bit;
+                }
+            }
+        }
+        allRows = compress(known);
+    }
+
+    /**
+     * Return the indexed data set without its instances
+     * @return
+     */
+    Instances getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * Return the rows with a class value
+     * @return
+     */
+    Rows getAllRows()
+    {
+        return allRows;
+    }
+
+    /**
+     * Count the rows of each class in a set of rows
+     * @param rows
+     * @return number of rows per class
+     */
+    double[] countClasses(Rows rows)
+    {
+        double [] classCounts = new double[classBitmaps.length];
+        for(int i=0; i<rows.words.length; i++)
+        {
+            int word = rows.words[i];
+            long bits = rows.bits[i];
+            for(int c=0; c<classBitmaps.length; c++)
+            {
+                classCounts[c] += Long.bitCount(bits & classBitmaps[c][word]);
+            }
+        }
+        return classCounts;
+    }
+
+    /**
+     * Build an attribute value x class contingency table for every attribute that can still be used for splitting,
+     * like MyId3.computeContingencyTables but with one popcount per 64 rows, attribute value and class.
+     * Words with fewer rows than popcounts are counted one row at a time instead.
+     * @param rows rows of the current node
+     * @param usedAttributes attributes that have already been used on the path to this node
+     * @return contingency table per attribute index, NULL for the class attribute and the used attributes
+     */
+    double[][][] computeContingencyTables(Rows rows, boolean[] usedAttributes)
+    {
+        double [][][] contingencyTables = new double[valueBitmaps.length][][];
+        int [] candidateAttributes = new int[valueBitmaps.length];
+        int numCandidates = 0;
+
+        for(int i=0; i<valueBitmaps.length; i++)
+        {
+            if(valueBitmaps[i] != null && !usedAttributes[i])
+            {
+                contingencyTables[i] = new double[valueBitmaps[i].length][classBitmaps.length];
+                candidateAttributes[numCandidates] = i;
+                numCandidates++;
+            }
+        }
+
+        int popcountsPerWord = 0;
+        for(int j=0; j<numCandidates; j++)
+        {
+            popcountsPerWord += valueBitmaps[candidateAttributes[j]].length * classBitmaps.length;
+        }
+        long [] classBits = new long[classBitmaps.length];
+        for(int i=0; i<rows.words.length; i++)
+        {
+            int word = rows.words[i];
+            long bits = rows.bits[i];
+            if(Long.bitCount(bits) * numCandidates < popcountsPerWord)
+            {
+                for(long remaining = bits; remaining != 0; remaining &= remaining - 1)
+                {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                    int rowClass = columns.classValue(row);
+                    for(int j=0; j<numCandidates; j++)
+                    {
+                        int attributeIndex = candidateAttributes[j];
+                        contingencyTables[attributeIndex][columns.nominalValue(row, attributeIndex)][rowClass]++;
+                    }
+                }
+                continue;
+            }
+            for(int c=0; c<classBitmaps.length; c++)
+            {
+                classBits[c] = bits & classBitmaps[c][word];
+            }
+            for(int j=0; j<numCandidates; j++)
+            {
+                long [][] attributeBitmaps = valueBitmaps[candidateAttributes[j]];
+                double [][] contingencyTable = contingencyTables[candidateAttributes[j]];
+                for(int v=0; v<attributeBitmaps.length; v++)
+                {
+                    long valueBits = attributeBitmaps[v][word];
+                    if((bits & valueBits) == 0)
+                    {
+                        continue;
+                    }
+                    for(int c=0; c<classBits.length; c++)
+                    {
+                        contingencyTable[v][c] += Long.bitCount(classBits[c] & valueBits);
+                    }
+                }
+            }
+        }
+        return contingencyTables;
+    }
+
+    /**
+     * Split a set of rows by the values of an attribute, like MyId3.splitDataByAttribute
+     * @param rows
+     * @param attributeIndex
+     * @return the rows having each value of the attribute
+     */
+    Rows[] split(Rows rows, int attributeIndex)
+    {
+        long [][] attributeBitmaps = valueBitmaps[attributeIndex];
+        Rows [] subRows = new Rows[attributeBitmaps.length];
+        int [] words = new int[rows.words.length];
+        long [] bits = new long[rows.words.length];
+        for(int v=0; v<attributeBitmaps.length; v++)
+        {
+            int numWords = 0;
+            int numRows = 0;
+            for(int i=0; i<rows.words.length; i++)
+            {
+                long subBits = rows.bits[i] & attributeBitmaps[v][rows.words[i]];
+                if(subBits != 0)
+                {
+                    words[numWords] = rows.words[i];
+                    bits[numWords] = subBits;
+                    numWords++;
+                    numRows += Long.bitCount(subBits);
+                }
+            }
+            subRows[v] = new Rows(Arrays.copyOf(words, numWords), Arrays.copyOf(bits, numWords), numRows);
+        }
+        return subRows;
+    }
+
+    /**
+     * Keep the non-empty words of a bitmap
+     * @param bitmap
+     * @return
+     */
+    private static Rows compress(long[] bitmap)
+    {
+        int numWords = 0;
+        int numRows = 0;
+        for(int i=0; i<bitmap.length; i++)
+        {
+            if(bitmap[i] != 0)
+            {
+                numWords++;
+                numRows += Long.bitCount(bitmap[i]);
+            }
+        }
+        int [] words = new int[numWords];
+        long [] bits = new long[numWords];
+        int position = 0;
+        for(int i=0; i<bitmap.length; i++)
+        {
+            if(bitmap[i] != 0)
+            {
+                words[position] = i;
+                bits[position] = bitmap[i];
+                position++;
+            }
+        }
+        return new Rows(words, bits, numRows);
+    }
+}
@@ -0,0 +1,147 @@
+package MyJ48;
+
+import weka.core.Attribute;
+
+import java.util.Arrays;
+
+/**
+ * Weight of each class per value of a nominal attribute, or per bin of a binned numeric attribute,
+ * over the rows of a node with a known value.
+ * The histogram of a node is the sum of the histograms of its children when its rows are partitioned,
+ * so the histogram of one child can be derived from its parent and its siblings without scanning its rows.
+ */
+public class ClassHistogram {
+
+    /**
+     * Weight of each class per value or bin, the weight of class c in bin b is at b * numClasses + c
+     */
+    double[] weights;
+
+    /**
+     * Number of instances per value or bin
+     */
+    int[] rows;
+
+    /**
+     * Number of classes
+     */
+    int numClasses;
+
+    /**
+     * Create an empty histogram
+     * @param numBins number of values or bins
+     * @param numClasses
+     */
+    ClassHistogram(int numBins, int numClasses)
+    {
+        weights = new double[numBins * numClasses];
+        rows = new int[numBins];
+        this.numClasses = numClasses;
+    }
+
+    /**
+     * Check whether the split search of an attribute on some rows uses a class histogram
+     * @param rows
+     * @param attribute
+     * @return
+     */
+    public static boolean isUsedFor(RowSet rows, Attribute attribute)
+    {
+        return attribute.isNominal() || (rows.numericBins != null && rows.numericBins.useBins(attribute, rows));
+    }
+
+    /**
+     * Compute the histogram of an attribute by scanning the rows
+     * @param rows
+     * @param attribute nominal, or numeric with bins
+     * @return
+     */
+    public static ClassHistogram scan(RowSet rows, Attribute attribute)
+    {
+        ClassHistogram histogram;
+        if(attribute.isNominal())
+        {
+            histogram = new ClassHistogram(attribute.numValues(), rows.numClasses());
+            for(int i=rows.start; i<rows.end; i++)
+            {
+                if(!rows.isMissing(i, attribute))
+                {
+                    histogram.add((int) rows.value(i, attribute), rows.classValue(i), rows.weights[i], rows.count(i));
+                }
+            }
+        }
+        else
+        {
+            short [] binOfRow = rows.numericBins.binOfRow[attribute.index()];
+            histogram = new ClassHistogram(rows.numericBins.numBins[attribute.index()], rows.numClasses());
+            for(int i=rows.start; i<rows.end; i++)
+            {
+                int bin = binOfRow[rows.indices[i]];
+                if(bin >= 0)
+                {
+                    histogram.add(bin, rows.classValue(i), rows.weights[i], rows.count(i));
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Add the weight of a row
+     * @param bin value or bin of the row
+     * @param classIndex
+     * @param weight
+     * @param count number of instances the row stands for
+     */
+    void add(int bin, int classIndex, double weight, int count)
+    {
+        weights[bin * numClasses + classIndex] += weight;
+        rows[bin] += count;
+    }
+
+    /**
+     * Return this histogram minus the histograms of some of its parts
+     * @param parts histograms of disjoint subsets of this histogram's rows, NULL entries are skipped
+     * @param skip index of the part to leave out
+     * @return
+     */
+    public ClassHistogram minus(ClassHistogram[] parts, int skip)
+    {
+        ClassHistogram difference = new ClassHistogram(rows.length, numClasses);
+        System.arraycopy(weights, 0, difference.weights, 0, weights.length);
+        System.arraycopy(rows, 0, difference.rows, 0, rows.length);
+        for(int j=0; j<parts.length; j++)
+        {
+            if(j != skip && parts[j] != null)
+            {
+                for(int i=0; i<weights.length; i++)
+                {
+                    difference.weights[i] -= parts[j].weights[i];
+                }
+                for(int bin=0; bin<rows.length; bin++)
+                {
+                    difference.rows[bin] -= parts[j].rows[bin];
+                }
+            }
+        }
+
+        /* No rounding residue in an empty bin */
+        for(int bin=0; bin<rows.length; bin++)
+        {
+            if(difference.rows[bin] == 0)
+            {
+                Arrays.fill(difference.weights, bin * numClasses, (bin + 1) * numClasses, 0);
+            }
+        }
+        return difference;
+    }
+
+    /**
+     * Return the number of values or bins
+     * @return
+     */
+    public int numBins()
+    {
+        return rows.length;
+    }
+}
@@ -7,7 +7,47 @@ import weka.core.Utils;
  * Created by timothy.pratama on 27-Sep-15.
  */
 public class ErrorCalculator {
+
+    /**
+     * Confidence level of the pessimistic error estimate
+     */
+    private final double confidenceLevel;
+
+    /**
+     * Standard normal deviate of the confidence level, computed once
+     */
+    private final double z;
+
+    /**
+     * Create an error calculator for a confidence level
+     * @param confidenceLevel
+     */
+    public ErrorCalculator(double confidenceLevel)
+    {
+        this.confidenceLevel = confidenceLevel;
+        z = Statistics.normalInverse(1 - confidenceLevel);
+    }
+
+    /**
+     * Return the confidence level of this calculator
+     * @return
+     */
+    public double getConfidenceLevel()
+    {
+        return confidenceLevel;
+    }
+
     public static double calculateError(double totalWeight, double numIncorect, double confidenceLevel) {
+        return new ErrorCalculator(confidenceLevel).calculateError(totalWeight, numIncorect);
+    }
+
+    /**
+     * Compute the number of additional errors of the pessimistic estimate
+     * @param totalWeight
+     * @param numIncorect
+     * @return
+     */
+    public double calculateError(double totalWeight, double numIncorect) {
         if(numIncorect < 1)
         {
             double base = totalWeight * (1 - Math.pow(confidenceLevel, 1 / totalWeight));
@@ -17,7 +57,7 @@ public class ErrorCalculator {
             }
             else
             {
-                return base + numIncorect * (calculateError(totalWeight, 1, confidenceLevel) - base);
+                return base + numIncorect * (calculateError(totalWeight, 1) - base);
             }
         }
         else
@@ -28,8 +68,6 @@ public class ErrorCalculator {
             }
             else
             {
-                double z = Statistics.normalInverse(1 - confidenceLevel);
-
                 double f = (numIncorect + 0.5) / totalWeight;
                 double r = (f + (z*z) / (2 * totalWeight) + z * Math.sqrt((f / totalWeight) - (f * f / totalWeight) + (z * z / (4 * totalWeight * totalWeight)))) / (1 + (z * z) / totalWeight);
 
@@ -1,16 +1,14 @@
 package MyJ48;
 
 import weka.core.Attribute;
-import weka.core.Instance;
-import weka.core.Instances;
 import weka.core.Utils;
 
-import java.util.Enumeration;
+import java.io.Serializable;
 
 /**
  * Created by timothy.pratama on 24-Sep-15.
  */
-public class J48ClassDistribution {
+public class J48ClassDistribution implements Serializable {
 
     /**
      * Weight each class per Subdataset
@@ -32,22 +30,42 @@ public class J48ClassDistribution {
      */
     public double weightTotal;
 
+    /**
+     * n * log2(n) of every integer weight below the size of this table
+     */
+    private static final double[] NLOG2N_TABLE = new double[1 << 16];
+
+    static
+    {
+        for(int n=1; n<NLOG2N_TABLE.length; n++)
+        {
+            NLOG2N_TABLE[n] = n * Math.log(n) / Math.log(2);
+        }
+    }
+
+    /**
+     * Running sums of n * log2(n) over the weight of each class per subdataset, of each subdataset and of each class,
+     * valid only while nLog2NValid is true
+     */
+    private double sumNLog2NClassPerSubdataset;
+    private double sumNLog2NPerSubDataset;
+    private double sumNLog2NPerClass;
+    private boolean nLog2NValid;
+
     /**
      * Create distributions with one dataset (since it's the first time).
-     * @param dataSet
+     * @param rows
      */
-    public J48ClassDistribution(Instances dataSet)
+    public J48ClassDistribution(RowSet rows)
     {
         weightTotal = 0;
-        weightClassPerSubdataset = new double[1][dataSet.numClasses()];
+        weightClassPerSubdataset = new double[1][rows.numClasses()];
         weightPerSubDataset = new double[1];
-        weightPerClass = new double[dataSet.numClasses()];
+        weightPerClass = new double[rows.numClasses()];
 
-        Enumeration instancesEnumeration = dataSet.enumerateInstances();
-        while(instancesEnumeration.hasMoreElements())
+        for(int i=rows.start; i<rows.end; i++)
         {
-            Instance i = (Instance) instancesEnumeration.nextElement();
-            addInstance(0, i);
+            addInstance(0, rows, i);
         }
     }
 
@@ -78,31 +96,23 @@ public class J48ClassDistribution {
         weightPerClass = new double[numberOfClass];
     }
 
-    public J48ClassDistribution(Instances dataSet, NodeType nodeType) {
+    public J48ClassDistribution(RowSet rows, NodeType nodeType) {
         int subsetIndex;
-        Instance instance;
-        double [] weights;
 
         weightClassPerSubdataset = new double[nodeType.numOfSubsets][0];
         weightPerSubDataset = new double[nodeType.numOfSubsets];
         weightTotal = 0;
-        weightPerClass = new double[dataSet.numClasses()];
+        weightPerClass = new double[rows.numClasses()];
         for(int i=0; i<nodeType.numOfSubsets; i++)
         {
-            weightClassPerSubdataset[i] = new double[dataSet.numClasses()];
+            weightClassPerSubdataset[i] = new double[rows.numClasses()];
         }
-        Enumeration instancesEnumeration = dataSet.enumerateInstances();
-        while(instancesEnumeration.hasMoreElements())
+        for(int i=rows.start; i<rows.end; i++)
         {
-            instance = (Instance) instancesEnumeration.nextElement();
-            subsetIndex = nodeType.getSubsetIndex(instance);
+            subsetIndex = nodeType.getSubsetIndex(rows.columns, rows.indices[i]);
             if(subsetIndex  != -1)
             {
-                addInstance(subsetIndex, instance);
-            }
-            else
-            {
-                weights = nodeType.getWeights(instance);
+                addInstance(subsetIndex, rows, i);
             }
         }
     }
@@ -135,17 +145,20 @@ public class J48ClassDistribution {
     }
 
     /**
-     * add single instance to subdataset
+     * add single row to subdataset
      * @param subDatasetIndex
-     * @param instance
+     * @param rows
+     * @param position position of the row in rows
      */
-    public void addInstance(int subDatasetIndex, Instance instance)
+    public void addInstance(int subDatasetIndex, RowSet rows, int position)
     {
-        int classIndex = (int) instance.classValue();
-        weightClassPerSubdataset[subDatasetIndex][classIndex] = weightClassPerSubdataset[subDatasetIndex][classIndex] + instance.weight();
-        weightPerSubDataset[subDatasetIndex] = weightPerSubDataset[subDatasetIndex] + instance.weight();
-        weightPerClass[classIndex] = weightPerClass[classIndex] +  instance.weight();
-        weightTotal = weightTotal + instance.weight();
+        int classIndex = rows.classValue(position);
+        double weight = rows.weight(position);
+        nLog2NValid = false;
+        weightClassPerSubdataset[subDatasetIndex][classIndex] = weightClassPerSubdataset[subDatasetIndex][classIndex] + weight;
+        weightPerSubDataset[subDatasetIndex] = weightPerSubDataset[subDatasetIndex] + weight;
+        weightPerClass[classIndex] = weightPerClass[classIndex] +  weight;
+        weightTotal = weightTotal + weight;
     }
 
     /**
@@ -233,6 +246,86 @@ public class J48ClassDistribution {
         return infoGain / splitInformation;
     }
 
+    /**
+     * Calculate the information gain from the running n * log2(n) sums, in O(1) once they are valid.
+     * Same value as calculateInfoGain up to rounding, for ranking the candidates of a split search
+     * that moves instances between subdatasets.
+     * @param instancesTotalWeight
+     * @return
+     */
+    public double calculateRunningInfoGain(double instancesTotalWeight)
+    {
+        validateNLog2NSums();
+
+        /* entropy of n_1, n_2, ... with sum N = (N * log2 N - sum(n_i * log2 n_i)) / N */
+        double initialEntropy = nLog2N(weightTotal) - sumNLog2NPerClass;
+        double finalEntropy = sumNLog2NPerSubDataset - sumNLog2NClassPerSubdataset;
+        double unknownRate = (instancesTotalWeight - weightTotal) / instancesTotalWeight;
+        return (1 - unknownRate) * (initialEntropy - finalEntropy) / weightTotal;
+    }
+
+    /**
+     * Calculate the gain ratio from the running n * log2(n) sums, see calculateRunningInfoGain
+     * @param infoGain
+     * @return
+     */
+    public double calculateRunningGainRatio(double infoGain)
+    {
+        validateNLog2NSums();
+        double splitInformation = (nLog2N(weightTotal) - sumNLog2NPerSubDataset) / weightTotal;
+        return infoGain / splitInformation;
+    }
+
+    /**
+     * Recompute the running n * log2(n) sums if the distribution changed other than by moving instances
+     */
+    private void validateNLog2NSums()
+    {
+        if(nLog2NValid)
+        {
+            return;
+        }
+        sumNLog2NClassPerSubdataset = 0;
+        sumNLog2NPerSubDataset = 0;
+        sumNLog2NPerClass = 0;
+        for(int i=0; i<numSubDatasets(); i++)
+        {
+            for(int j=0; j<numClasses(); j++)
+            {
+                sumNLog2NClassPerSubdataset += nLog2N(weightClassPerSubdataset[i][j]);
+            }
+            sumNLog2NPerSubDataset += nLog2N(weightPerSubDataset[i]);
+        }
+        for(int j=0; j<numClasses(); j++)
+        {
+            sumNLog2NPerClass += nLog2N(weightPerClass[j]);
+        }
+        nLog2NValid = true;
+    }
+
+    /**
+     * return n * log2(n), from the table when n is a small integer
+     * @param n
+     * @return
+     */
+    private static double nLog2N(double n)
+    {
+        int k = (int) n;
+        if(k == n && k < NLOG2N_TABLE.length)
+        {
+            return k > 0 ? NLOG2N_TABLE[k] : 0;
+        }
+        else if(n <= 0)
+        {
+            /* rounding residue of a subdataset or class emptied by moving instances */
+            return 0;
+        }
+        else
+        {
+            return n * Math.log(n) / Math.log(2);
+        }
+    }
+
     /**
      * return the result of log2
      * @param a
@@ -253,53 +346,126 @@ public class J48ClassDistribution {
      * Move instance from 1 subdataset to other subdataset
      * @param src
      * @param des
-     * @param dataSet
+     * @param rows
      * @param startIndex
      * @param lastIndex
      */
-    public void moveInstance(int src, int des, Instances dataSet, int startIndex, int lastIndex)
+    public void moveInstance(int src, int des, RowSet rows, int startIndex, int lastIndex)
     {
         int classIndex;
         double weight;
-        Instance data;
 
+        if(nLog2NValid)
+        {
+            sumNLog2NPerSubDataset -= nLog2N(weightPerSubDataset[src]) + nLog2N(weightPerSubDataset[des]);
+        }
         for(int i=startIndex; i<lastIndex; i++)
         {
-            data = dataSet.instance(i);
-            classIndex = (int) data.classValue();
-            weight = data.weight();
+            classIndex = rows.classValue(i);
+            weight = rows.weight(i);
+            if(nLog2NValid)
+            {
+                sumNLog2NClassPerSubdataset -= nLog2N(weightClassPerSubdataset[src][classIndex]) + nLog2N(weightClassPerSubdataset[des][classIndex]);
+            }
             weightClassPerSubdataset[src][classIndex] = weightClassPerSubdataset[src][classIndex] - weight;
             weightClassPerSubdataset[des][classIndex] = weightClassPerSubdataset[des][classIndex] + weight;
             weightPerSubDataset[src] = weightPerSubDataset[src] - weight;
             weightPerSubDataset[des] = weightPerSubDataset[des] + weight;
+            if(nLog2NValid)
+            {
+                sumNLog2NClassPerSubdataset += nLog2N(weightClassPerSubdataset[src][classIndex]) + nLog2N(weightClassPerSubdataset[des][classIndex]);
+            }
+        }
+        if(nLog2NValid)
+        {
+            sumNLog2NPerSubDataset += nLog2N(weightPerSubDataset[src]) + nLog2N(weightPerSubDataset[des]);
         }
     }
 
     /**
      * Add more than 1 instance to a subdataset
      * @param subDatasetIndex
-     * @param dataSet
+     * @param rows
      * @param startIndex
      * @param lastIndex
      */
-    public void addRange(int subDatasetIndex, Instances dataSet, int startIndex, int lastIndex)
+    public void addRange(int subDatasetIndex, RowSet rows, int startIndex, int lastIndex)
     {
         double totalWeight = 0;
+        double weight;
         int classIndex;
-        Instance instance;
 
+        nLog2NValid = false;
         for(int i=startIndex; i<lastIndex; i++)
         {
-            instance = dataSet.instance(i);
-            classIndex = (int) instance.classValue();
-            totalWeight = totalWeight + instance.weight();
-            weightClassPerSubdataset[subDatasetIndex][classIndex] += instance.weight();
-            weightPerClass[classIndex] += instance.weight();
+            classIndex = rows.classValue(i);
+            weight = rows.weight(i);
+            totalWeight = totalWeight + weight;
+            weightClassPerSubdataset[subDatasetIndex][classIndex] += weight;
+            weightPerClass[classIndex] += weight;
         }
         weightPerSubDataset[subDatasetIndex] += totalWeight;
         weightTotal += totalWeight;
     }
 
+    /**
+     * Add the class weights of a group of rows (e.g. a histogram bin) to a subdataset
+     * @param subDatasetIndex
+     * @param classWeights weight of each class, numClasses values from offset
+     * @param offset
+     */
+    public void addClassWeights(int subDatasetIndex, double[] classWeights, int offset)
+    {
+        nLog2NValid = false;
+        for(int classIndex=0; classIndex<numClasses(); classIndex++)
+        {
+            double weight = classWeights[offset + classIndex];
+            weightClassPerSubdataset[subDatasetIndex][classIndex] += weight;
+            weightPerSubDataset[subDatasetIndex] += weight;
+            weightPerClass[classIndex] += weight;
+            weightTotal += weight;
+        }
+    }
+
+    /**
+     * Move the class weights of a group of rows (e.g. a histogram bin) from 1 subdataset to other subdataset
+     * @param src
+     * @param des
+     * @param classWeights weight of each class, numClasses values from offset
+     * @param offset
+     */
+    public void moveClassWeights(int src, int des, double[] classWeights, int offset)
+    {
+        if(nLog2NValid)
+        {
+            sumNLog2NPerSubDataset -= nLog2N(weightPerSubDataset[src]) + nLog2N(weightPerSubDataset[des]);
+        }
+        for(int classIndex=0; classIndex<numClasses(); classIndex++)
+        {
+            double weight = classWeights[offset + classIndex];
+            if(weight == 0)
+            {
+                continue;
+            }
+            if(nLog2NValid)
+            {
+                sumNLog2NClassPerSubdataset -= nLog2N(weightClassPerSubdataset[src][classIndex]) + nLog2N(weightClassPerSubdataset[des][classIndex]);
+            }
+            weightClassPerSubdataset[src][classIndex] -= weight;
+            weightClassPerSubdataset[des][classIndex] += weight;
+            weightPerSubDataset[src] -= weight;
+            weightPerSubDataset[des] += weight;
+            if(nLog2NValid)
+            {
+                sumNLog2NClassPerSubdataset += nLog2N(weightClassPerSubdataset[src][classIndex]) + nLog2N(weightClassPerSubdataset[des][classIndex]);
+            }
+        }
+        if(nLog2NValid)
+        {
+            sumNLog2NPerSubDataset += nLog2N(weightPerSubDataset[src]) + nLog2N(weightPerSubDataset[des]);
+        }
+    }
+
     /**
      * Print this distribution for debugging
      */
@@ -329,15 +495,15 @@ public class J48ClassDistribution {
 
     /**
      * Add instance with missing value using probability (weight)
-     * @param dataset
+     * @param rows
      * @param attribute
      */
-    public void addInstanceWithMissingValue(Instances dataset, Attribute attribute) {
+    public void addInstanceWithMissingValue(RowSet rows, Attribute attribute) {
         double[] valueProbabilities;
         double weight, newWeight;
         int classIndex;
-        Instance instance;
 
+        nLog2NValid = false;
         valueProbabilities = new double[numSubDatasets()];
         for (int i=0; i<numSubDatasets(); i++)
         {
@@ -351,14 +517,12 @@ public class J48ClassDistribution {
             }
         }
 
-        Enumeration instanceEnumeration = dataset.enumerateInstances();
-        while(instanceEnumeration.hasMoreElements())
+        for(int j=rows.start; j<rows.end; j++)
         {
-            instance = (Instance) instanceEnumeration.nextElement();
-            if(instance.isMissing(attribute))
+            if(rows.isMissing(j, attribute))
             {
-                classIndex = (int) instance.classValue();
-                weight = instance.weight();
+                classIndex = rows.classValue(j);
+                weight = rows.weight(j);
                 weightPerClass[classIndex] += weight;
                 weightTotal += weight;
                 for(int i=0; i<numSubDatasets(); i++)
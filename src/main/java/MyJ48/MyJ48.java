@@ -1,12 +1,23 @@
 package MyJ48;
 
+import Util.BatchScorer;
+import Util.BuildTimer;
+import Util.ColumnarDataSet;
+import Util.FlatTree;
+import Util.IoStatistics;
+import Util.RowDeduplicator;
 import Util.Util;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.trees.J48;
 import weka.core.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by timothy.pratama on 24-Sep-15.
@@ -29,9 +40,15 @@ public class MyJ48 extends Classifier {
     private boolean is_empty;
 
     /**
-     * this attribute store the data set used for training this model
+     * this attribute store the rows of the shared data set used for training this model
      */
-    private Instances dataSet;
+    private RowSet dataSet;
+
+    /**
+     * The header of the training data set, shared by every node, what printing and classification need once
+     * the rows are dropped
+     */
+    private Instances header;
 
     /**
      * This attribute is the minimal number of instances allowed for C4.5
@@ -48,6 +65,16 @@ public class MyJ48 extends Classifier {
      */
     private float confidenceLevel = 0.1f;
 
+    /**
+     * Pessimistic error of this node as a leaf, NaN until computed while pruning
+     */
+    private double leafErrorEstimate = Double.NaN;
+
+    /**
+     * Pessimistic error of the subtree of this node, NaN until computed while pruning
+     */
+    private double treeErrorEstimate = Double.NaN;
+
     /**
      * This attribute store the type of this node whether it's splitable or not-splitable (leaf)
      */
@@ -56,7 +83,76 @@ public class MyJ48 extends Classifier {
     /**
      * Subdataset for this node
      */
-    Instances [] subDataset;
+    RowSet [] subDataset;
+
+    /**
+     * The splitable of every attribute of this node, kept until the histograms of the children are derived
+     */
+    private Splitable[] splitables;
+
+    /**
+     * Class histogram per attribute index given by the parent node, so processNode doesn't rescan the rows.
+     * NULL entries (or a NULL array) are computed from the rows.
+     */
+    private ClassHistogram[] histograms;
+
+    /**
+     * this attribute store whether the numeric attributes are sorted once at the root,
+     * instead of sorting the rows of every node for every numeric attribute
+     */
+    private boolean presortNumericAttributes = true;
+
+    /**
+     * this attribute store whether identical rows are collapsed into a single weighted row before growing the tree
+     */
+    private boolean deduplicateRows = false;
+
+    /**
+     * this attribute store the number of bins of each numeric attribute for the approximate split search,
+     * 0 means the split search is always exact
+     */
+    private int numHistogramBins = 0;
+
+    /**
+     * Nodes with fewer rows than this use the exact split search even when numHistogramBins is set
+     */
+    private int histogramMinRows = 1000;
+
+    /**
+     * this attribute store the number of threads used to evaluate the candidate attributes of a node
+     * and to build sibling subtrees, 1 means the tree is built sequentially
+     */
+    private int numExecutionSlots = 1;
+
+    /**
+     * Subtrees with at least this many rows are built as separate tasks, smaller ones are built inline
+     */
+    private int parallelSubtreeThreshold = 5000;
+
+    /**
+     * The pool building the tree, only alive while the tree is built
+     */
+    private transient ForkJoinPool pool;
+
+    /**
+     * Measure the work done while building the tree, to report the achieved parallel speedup
+     */
+    private BuildTimer buildTimer;
+
+    /**
+     * Bytes read from the columns' files while building the tree, per level. NULL if the columns were in memory.
+     */
+    private IoStatistics ioStatistics;
+
+    /**
+     * Depth of this node in the tree, 0 for the root
+     */
+    private int depth;
+
+    /**
+     * Nodes with fewer rows than this evaluate their attributes sequentially, the tasks are not worth it
+     */
+    private static final int MIN_ROWS_FOR_PARALLEL_EVALUATION = 1000;
 
     /**
      * Train the classifier using the given dataset
@@ -68,19 +164,113 @@ public class MyJ48 extends Classifier {
         // Check if the data set is able to be proccessed using MyJ48.MyJ48
         getCapabilities().testWithFail(instances);
 
-        Instances data = new Instances(instances);
-        data.deleteWithMissingClass();
+        buildClassifier(new ColumnarDataSet(instances));
+    }
 
-        createTree(data);
+    /**
+     * Train the classifier on a data set stored in columns, which takes several times less memory than the
+     * instances. The data set can be read straight from a file with ColumnarDataSet.readArff, or be mapped from
+     * column files with MappedColumnarDataSet when it doesn't fit in the heap; then only the row indices and the
+     * weights of the rows are kept in the heap, and getIoStatistics tells how much of the columns each level of the
+     * tree read. Mapped columns must be nominal: searching a numeric split sorts or bins the values in the heap,
+     * which would take more memory than the column itself.
+     * @param columns dataset for training, the class attribute must be set
+     * @throws Exception
+     */
+    public void buildClassifier(ColumnarDataSet columns) throws Exception {
+        columns.testWithFail(getCapabilities());
 
-        collapseTree();
+        long bytesBefore = columns.bytesRead();
+        growTree(columns);
         pruneTree();
+        prepareForClassification();
+        finishTraining();
+        if(ioStatistics != null)
+        {
+            ioStatistics.setTotalBytes(columns.bytesRead() - bytesBefore);
+        }
+    }
+
+    /**
+     * Grow and collapse the tree without pruning it, the benchmarks time pruning on its own
+     * @param columns dataset for training
+     * @throws Exception
+     */
+    void growTree(ColumnarDataSet columns) throws Exception {
+        if(!columns.isInMemory())
+        {
+            for(int a=0; a<columns.numAttributes(); a++)
+            {
+                if(a != columns.classIndex() && columns.getHeader().attribute(a).isNumeric())
+                {
+                    throw new WekaException(getClass().getName() + ": Cannot handle numeric attributes of columns read from files!");
+                }
+            }
+        }
+        header = new Instances(columns.getHeader(), 0);
+        ioStatistics = columns.isInMemory() ? null : new IoStatistics();
+        long bytesBefore = columns.bytesRead();
+
+        /* Columns read from files stay out of the heap, their rows are not collapsed */
+        int [] rowCounts = null;
+        if(deduplicateRows && columns.isInMemory())
+        {
+            RowDeduplicator deduplicator = new RowDeduplicator(columns);
+            columns = deduplicator.getColumns();
+            rowCounts = deduplicator.getCounts();
+        }
+
+        /* Instances with missing class are simply left out of the row set */
+        RowSet rows = new RowSet(columns);
+        rows.rowCounts = rowCounts;
+        if(presortNumericAttributes)
+        {
+            rows.presortNumericAttributes();
+        }
+        if(numHistogramBins > 0)
+        {
+            rows.binNumericAttributes(numHistogramBins, histogramMinRows);
+        }
+        if(ioStatistics != null)
+        {
+            ioStatistics.setPreparationBytes(columns.bytesRead() - bytesBefore);
+        }
+
+        if(numExecutionSlots > 1)
+        {
+            pool = new ForkJoinPool(numExecutionSlots);
+        }
+        buildTimer = new BuildTimer(numExecutionSlots > 1);
+        buildTimer.start();
+        try
+        {
+            createTree(rows);
+        }
+        finally
+        {
+            buildTimer.stop();
+            if(pool != null)
+            {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+
+        collapseTree();
     }
 
     /**
      * Prune the tree!
      */
-    private void pruneTree() {
+    void pruneTree() {
+        pruneTree(new ErrorCalculator(confidenceLevel));
+    }
+
+    /**
+     * Prune the tree, the error estimates of every node are computed once and kept until its distribution changes
+     * @param errorCalculator
+     */
+    private void pruneTree(ErrorCalculator errorCalculator) {
         int largestBranchIndex;
         double largestBranchError;
         double leafError;
@@ -91,30 +281,50 @@ public class MyJ48 extends Classifier {
         {
             for(int i=0; i<childs.length; i++)
             {
-                childs[i].pruneTree();
+                childs[i].pruneTree(errorCalculator);
             }
 
             largestBranchIndex = Utils.maxIndex(nodeType.classDistribution.weightPerSubDataset);
-            largestBranchError = childs[largestBranchIndex].getBranchError(dataSet);
-            leafError = getDistributionError(nodeType.classDistribution);
-            treeError = getEstimatedTreeError();
+            largestBranchError = Double.NaN;
+            if(isPartitioned())
+            {
+                largestBranchError = childs[largestBranchIndex].getRaisedBranchError(
+                        dataSet.without(childs[largestBranchIndex].dataSet), errorCalculator);
+            }
+            if(Double.isNaN(largestBranchError))
+            {
+                largestBranchError = childs[largestBranchIndex].getBranchError(dataSet.copy(), errorCalculator);
+            }
+            leafError = getLeafError(errorCalculator);
+            treeError = getEstimatedTreeError(errorCalculator);
 
             if(Utils.smOrEq(leafError, treeError+0.1) && Utils.smOrEq(leafError, largestBranchError+0.1))
             {
                 childs = null;
                 is_leaf = true;
                 nodeType = new NotSplitable(nodeType.classDistribution);
+                treeErrorEstimate = leafError;
             }
             else
             {
                 if(Utils.smOrEq(largestBranchError, treeError + 0.1))
                 {
                     largestBranch = childs[largestBranchIndex];
+                    boolean moved = raiseBranch(largestBranchIndex);
                     childs = largestBranch.childs;
                     nodeType = largestBranch.nodeType;
                     is_leaf = largestBranch.is_leaf;
-                    createNewDistribution(dataSet);
-                    pruneTree();
+                    if(moved)
+                    {
+                        leafErrorEstimate = Double.NaN;
+                        treeErrorEstimate = Double.NaN;
+                        is_empty = is_leaf ? largestBranch.is_empty : is_empty;
+                    }
+                    else
+                    {
+                        createNewDistribution(dataSet);
+                    }
+                    pruneTree(errorCalculator);
                 }
             }
         }
@@ -124,10 +334,12 @@ public class MyJ48 extends Classifier {
      * Create new distribution for this node.
      * @param dataSet
      */
-    private void createNewDistribution(Instances dataSet) {
-        Instances [] subDataset;
+    private void createNewDistribution(RowSet dataSet) {
+        RowSet [] subDataset;
         this.dataSet = dataSet;
         nodeType.resetDistribution(dataSet);
+        leafErrorEstimate = Double.NaN;
+        treeErrorEstimate = Double.NaN;
         if(!is_leaf)
         {
             subDataset = nodeType.split(dataSet);
@@ -151,32 +363,226 @@ public class MyJ48 extends Classifier {
 
     /**
      * Get estimated error for the tree
+     * @param errorCalculator
      * @return
      */
-    private double getEstimatedTreeError() {
+    private double getEstimatedTreeError(ErrorCalculator errorCalculator) {
         double error = 0;
 
+        if(Double.isNaN(treeErrorEstimate))
+        {
+            if(is_leaf)
+            {
+                error = getLeafError(errorCalculator);
+            }
+            else
+            {
+                for (int i=0; i<childs.length; i++)
+                {
+                    error = error + childs[i].getEstimatedTreeError(errorCalculator);
+                }
+            }
+            treeErrorEstimate = error;
+        }
+        return treeErrorEstimate;
+    }
+
+    /**
+     * Get estimated error for this node as a leaf
+     * @param errorCalculator
+     * @return
+     */
+    private double getLeafError(ErrorCalculator errorCalculator) {
+        if(Double.isNaN(leafErrorEstimate))
+        {
+            leafErrorEstimate = getDistributionError(nodeType.classDistribution, errorCalculator);
+        }
+        return leafErrorEstimate;
+    }
+
+    /**
+     * Get estimated error of this branch if it replaced its parent, from the cached distributions of this branch
+     * and the rows of the parent's other branches only. Same value as getBranchError on the parent's rows.
+     * @param otherRows rows of the parent outside this branch, split in place
+     * @param errorCalculator
+     * @return NaN if the rows can't be routed without the rows of this branch
+     */
+    private double getRaisedBranchError(RowSet otherRows, ErrorCalculator errorCalculator) {
         if(is_leaf)
         {
-            return getDistributionError(nodeType.classDistribution);
+            J48ClassDistribution classDistribution = new J48ClassDistribution(nodeType.classDistribution);
+            for(int i=otherRows.start; i<otherRows.end; i++)
+            {
+                classDistribution.addInstance(0, otherRows, i);
+            }
+            return getDistributionError(classDistribution, errorCalculator);
         }
         else
         {
-            for (int i=0; i<childs.length; i++)
+            if(!isPartitioned())
             {
-                error = error + childs[i].getEstimatedTreeError();
+                return Double.NaN;
             }
-            return error;
+            RowSet [] subDataset = nodeType.split(otherRows);
+            if(subDataset[0].indices != otherRows.indices)
+            {
+                return Double.NaN;
+            }
+            /* Like getBranchError, only the first branch is followed */
+            return childs[0].getRaisedBranchError(subDataset[0], errorCalculator);
         }
     }
 
-    private double getBranchError(Instances dataSet) {
-        Instances [] subDataset;
+    /**
+     * Check whether the rows of every branch are consecutive ranges of the rows of this node,
+     * i.e. no row of this node went to several branches
+     * @return
+     */
+    private boolean isPartitioned() {
+        int position = dataSet.start;
+        for(int i=0; i<childs.length; i++)
+        {
+            RowSet rows = childs[i].dataSet;
+            if(rows.indices != dataSet.indices || rows.start != position)
+            {
+                return false;
+            }
+            position = rows.end;
+        }
+        return position == dataSet.end;
+    }
+
+    /**
+     * Give a branch of this node the rows of the other branches before it replaces this node.
+     * Only these rows are routed down the branch, the rows already in it keep their place in their leaf.
+     * Every node of the branch gets its new range of the rows of this node, and the nodes reached by
+     * the routed rows get their distribution updated and their error estimates invalidated.
+     * @param branchIndex
+     * @return false, with nothing changed, if a routed row has a missing value on its way or some node of
+     * the branch is not partitioned, then the distributions have to be recomputed from all the rows
+     */
+    private boolean raiseBranch(int branchIndex) {
+        if(!isPartitioned())
+        {
+            return false;
+        }
+        RoutedRows routedRows = childs[branchIndex].routeRows(dataSet.without(childs[branchIndex].dataSet));
+        if(routedRows == null)
+        {
+            return false;
+        }
+
+        int [] indices = new int[dataSet.numRows()];
+        double [] weights = new double[dataSet.numRows()];
+        childs[branchIndex].addRoutedRows(routedRows, indices, weights, 0, dataSet);
+        System.arraycopy(indices, 0, dataSet.indices, dataSet.start, indices.length);
+        System.arraycopy(weights, 0, dataSet.weights, dataSet.start, weights.length);
+        return true;
+    }
+
+    /**
+     * Route rows down this subtree without changing it
+     * @param rows rows to route, split in place
+     * @return NULL if a row has a missing value on its way or some node of the subtree is not partitioned
+     */
+    private RoutedRows routeRows(RowSet rows) {
+        RoutedRows routedRows = new RoutedRows();
+        routedRows.rows = rows;
+        if(!is_leaf)
+        {
+            if(!isPartitioned())
+            {
+                return null;
+            }
+            RowSet [] subDataset = nodeType.split(rows);
+            if(subDataset[0].indices != rows.indices)
+            {
+                return null;
+            }
+            routedRows.childs = new RoutedRows[childs.length];
+            for(int i=0; i<childs.length; i++)
+            {
+                routedRows.childs[i] = childs[i].routeRows(subDataset[i]);
+                if(routedRows.childs[i] == null)
+                {
+                    return null;
+                }
+            }
+        }
+        return routedRows;
+    }
+
+    /**
+     * Lay out the rows of this subtree and the rows routed into it, branch after branch, and add the routed rows
+     * to the distributions
+     * @param routedRows
+     * @param indices new row indices of the raising node, written from position
+     * @param weights new row weights of the raising node, written from position
+     * @param position
+     * @param parentRows rows of the raising node, where the new layout is copied to
+     * @return the position after the rows of this subtree
+     */
+    private int addRoutedRows(RoutedRows routedRows, int[] indices, double[] weights, int position, RowSet parentRows) {
+        int start = position;
+        RowSet rows = routedRows.rows;
+        if(is_leaf)
+        {
+            System.arraycopy(dataSet.indices, dataSet.start, indices, position, dataSet.numRows());
+            System.arraycopy(dataSet.weights, dataSet.start, weights, position, dataSet.numRows());
+            position = position + dataSet.numRows();
+            System.arraycopy(rows.indices, rows.start, indices, position, rows.numRows());
+            System.arraycopy(rows.weights, rows.start, weights, position, rows.numRows());
+            position = position + rows.numRows();
+            for(int i=rows.start; i<rows.end; i++)
+            {
+                nodeType.classDistribution.addInstance(0, rows, i);
+            }
+        }
+        else
+        {
+            for(int i=0; i<childs.length; i++)
+            {
+                position = childs[i].addRoutedRows(routedRows.childs[i], indices, weights, position, parentRows);
+                RowSet childRows = routedRows.childs[i].rows;
+                for(int j=childRows.start; j<childRows.end; j++)
+                {
+                    nodeType.classDistribution.addInstance(i, childRows, j);
+                }
+            }
+        }
+
+        dataSet = new RowSet(parentRows.columns, parentRows.indices, parentRows.weights,
+                parentRows.start + start, parentRows.start + position);
+        dataSet.numericBins = parentRows.numericBins;
+        dataSet.rowCounts = parentRows.rowCounts;
+        if(rows.numRows() > 0)
+        {
+            leafErrorEstimate = Double.NaN;
+            treeErrorEstimate = Double.NaN;
+            if(is_leaf)
+            {
+                is_empty = Utils.eq(0, nodeType.classDistribution.getTotalWeight());
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Rows routed down a subtree, and the part of them reaching each branch
+     */
+    private static class RoutedRows
+    {
+        RowSet rows;
+        RoutedRows [] childs;
+    }
+
+    private double getBranchError(RowSet dataSet, ErrorCalculator errorCalculator) {
+        RowSet [] subDataset;
         double error = 0;
 
         if(is_leaf)
         {
-            return getDistributionError(new J48ClassDistribution(dataSet));
+            return getDistributionError(new J48ClassDistribution(dataSet), errorCalculator);
         }
         else
         {
@@ -186,20 +592,20 @@ public class MyJ48 extends Classifier {
             nodeType.classDistribution = tempClassDistribution;
             for(int i=0; i<childs.length; i++)
             {
-                error = error + childs[i].getBranchError(subDataset[i]);
+                error = error + childs[i].getBranchError(subDataset[i], errorCalculator);
                 return error;
             }
         }
         return 0;
     }
 
-    private double getDistributionError(J48ClassDistribution classDistribution) {
+    private double getDistributionError(J48ClassDistribution classDistribution, ErrorCalculator errorCalculator) {
         if(Utils.eq(0, classDistribution.getTotalWeight())) {
             return 0;
         }
         else
         {
-            return classDistribution.numIncorrect() + ErrorCalculator.calculateError(classDistribution.getTotalWeight(), classDistribution.numIncorrect(), confidenceLevel);
+            return classDistribution.numIncorrect() + errorCalculator.calculateError(classDistribution.getTotalWeight(), classDistribution.numIncorrect());
         }
     }
 
@@ -233,44 +639,214 @@ public class MyJ48 extends Classifier {
      * Create the tree
      * @param data
      */
-    private void createTree(Instances data)
+    private void createTree(RowSet data)
     {
+        long startTime = buildTimer.startWork();
+        long bytesBefore = ioStatistics == null ? 0 : data.columns.bytesRead();
         dataSet = data;
         is_leaf = false;
         is_empty = false;
         testSetDistribution = null;
+        leafErrorEstimate = Double.NaN;
+        treeErrorEstimate = Double.NaN;
 
         nodeType = processNode();
+        histograms = null;
         if(nodeType.numOfSubsets > 1)
         {
             subDataset = nodeType.split(dataSet);
+            nodeType.splitSortedLists(dataSet, subDataset);
 //            dataSet = null;
+            ClassHistogram[][] childHistograms = deriveChildHistograms();
+            splitables = null;
             childs = new MyJ48[nodeType.numOfSubsets];
-            for(int i=0; i<nodeType.numOfSubsets; i++)
-            {
-                childs[i] = createNewTree(subDataset[i]);
-            }
+            buildTimer.endWork(startTime);
+            addBytesRead(bytesBefore);
+            createChilds(childHistograms);
         }
         else
         {
+            splitables = null;
             is_leaf = true;
             if(Utils.eq(dataSet.sumOfWeights(), 0))
             {
                 is_empty = true;
             }
+            buildTimer.endWork(startTime);
+            addBytesRead(bytesBefore);
+        }
+    }
+
+    /**
+     * Add the bytes this node read from the columns' files to the bytes of its level
+     * @param bytesBefore bytes read from the columns when the node started growing
+     */
+    private void addBytesRead(long bytesBefore)
+    {
+        if(ioStatistics != null)
+        {
+            ioStatistics.addLevelBytes(depth, dataSet.columns.bytesRead() - bytesBefore);
+        }
+    }
+
+    /**
+     * Compute the class histograms of the children from this node's histograms.
+     * When the rows are partitioned (no row is missing the split attribute), the largest child's histograms
+     * are this node's minus its siblings', so only the smaller children are scanned.
+     * Scanning a sibling that is going to be a leaf is wasted work, so the histograms are only derived on
+     * unbalanced splits and when that waste is smaller than the rows of the largest child.
+     * @return class histograms per child and attribute index, NULL if they can't be derived
+     */
+    private ClassHistogram[][] deriveChildHistograms()
+    {
+        /* Without missing values the rows are partitioned in place, every row belongs to exactly one child */
+        if(splitables == null || subDataset[0].indices != dataSet.indices)
+        {
+            return null;
+        }
+
+        int largestChild = 0;
+        for(int j=1; j<subDataset.length; j++)
+        {
+            if(subDataset[j].numRows() > subDataset[largestChild].numRows())
+            {
+                largestChild = j;
+            }
+        }
+
+        /* Only worth it when the largest child holds most of the rows, and is going to look at its attributes */
+        int siblingRows = dataSet.numRows() - subDataset[largestChild].numRows();
+        if(siblingRows >= subDataset[largestChild].numRows() || isLeaf(subDataset[largestChild]))
+        {
+            return null;
+        }
+
+        /* Rows scanned only for the subtraction, for nominal and for binned numeric attributes */
+        int wastedNominalRows = 0;
+        int wastedBinnedRows = 0;
+        for(int j=0; j<subDataset.length; j++)
+        {
+            if(j != largestChild)
+            {
+                if(isLeaf(subDataset[j]))
+                {
+                    wastedNominalRows += subDataset[j].numRows();
+                    wastedBinnedRows += subDataset[j].numRows();
+                }
+                else if(dataSet.numericBins != null && subDataset[j].numInstances() < dataSet.numericBins.minRows)
+                {
+                    wastedBinnedRows += subDataset[j].numRows();
+                }
+            }
+        }
+
+        ClassHistogram[][] childHistograms = new ClassHistogram[subDataset.length][splitables.length];
+        ClassHistogram[] parts = new ClassHistogram[subDataset.length];
+        for(int a=0; a<splitables.length; a++)
+        {
+            if(splitables[a] == null || splitables[a].histogram == null ||
+               !ClassHistogram.isUsedFor(subDataset[largestChild], splitables[a].splitAttribute))
+            {
+                continue;
+            }
+            int wastedRows = splitables[a].splitAttribute.isNominal() ? wastedNominalRows : wastedBinnedRows;
+            if(wastedRows >= subDataset[largestChild].numRows())
+            {
+                continue;
+            }
+            for(int j=0; j<subDataset.length; j++)
+            {
+                parts[j] = j == largestChild ? null : ClassHistogram.scan(subDataset[j], splitables[a].splitAttribute);
+                childHistograms[j][a] = parts[j];
+            }
+            childHistograms[largestChild][a] = splitables[a].histogram.minus(parts, largestChild);
+        }
+        return childHistograms;
+    }
+
+    /**
+     * Check whether the node of some rows is going to be a leaf before looking at its attributes,
+     * because it has too few rows or a single class (see processNode)
+     * @param rows
+     * @return
+     */
+    private boolean isLeaf(RowSet rows)
+    {
+        if(Utils.sm(rows.numInstances(), 2 * minimalInstances))
+        {
+            return true;
+        }
+        int firstClass = -1;
+        for(int i=rows.start; i<rows.end; i++)
+        {
+            if(rows.weights[i] > 0)
+            {
+                int classIndex = rows.classValue(i);
+                if(firstClass == -1)
+                {
+                    firstClass = classIndex;
+                }
+                else if(classIndex != firstClass)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build the subtree of every subdataset. Sibling subtrees own disjoint rows, so the large ones
+     * are built as separate tasks when there is a pool, and the small ones inline.
+     * @param childHistograms class histograms per child and attribute index, or NULL
+     */
+    private void createChilds(final ClassHistogram[][] childHistograms)
+    {
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for(int i=0; i<nodeType.numOfSubsets; i++)
+        {
+            final int childIndex = i;
+            if(pool != null && subDataset[i].numRows() >= parallelSubtreeThreshold)
+            {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        childs[childIndex] = createNewTree(subDataset[childIndex],
+                                childHistograms == null ? null : childHistograms[childIndex]);
+                    }
+                });
+            }
+            else
+            {
+                childs[i] = createNewTree(subDataset[i], childHistograms == null ? null : childHistograms[i]);
+            }
+        }
+        if(!tasks.isEmpty())
+        {
+            Util.invokeAll(pool, tasks);
         }
     }
 
-    private MyJ48 createNewTree(Instances subDataset) {
+    private MyJ48 createNewTree(RowSet subDataset, ClassHistogram[] histograms) {
         MyJ48 newMyJ48 = new MyJ48();
+        newMyJ48.histograms = histograms;
+        newMyJ48.header = header;
+        newMyJ48.numExecutionSlots = numExecutionSlots;
+        newMyJ48.parallelSubtreeThreshold = parallelSubtreeThreshold;
+        newMyJ48.pool = pool;
+        newMyJ48.buildTimer = buildTimer;
+        newMyJ48.ioStatistics = ioStatistics;
+        newMyJ48.depth = depth + 1;
         newMyJ48.createTree(subDataset);
+        newMyJ48.pool = null;
+        newMyJ48.buildTimer = null;
+        newMyJ48.ioStatistics = null;
         return newMyJ48;
     }
 
     private NodeType processNode()
     {
         double minGainRatio;
-        Splitable[] splitables;
         Splitable bestSplitable = null;
         NotSplitable notSplitable = null;
         double averageInfoGain = 0;
@@ -293,14 +869,26 @@ public class MyJ48 extends Classifier {
 
             /* The node is splitable */
 
-            splitables = new Splitable[dataSet.numAttributes()];
+            splitables = new Splitable[dataSet.getDataSet().numAttributes()];
+            totalWeight = dataSet.sumOfWeights();
 
-            Enumeration attributeEnumeration = dataSet.enumerateAttributes();
+            Enumeration attributeEnumeration = dataSet.getDataSet().enumerateAttributes();
+            while(attributeEnumeration.hasMoreElements())
+            {
+                Attribute attribute = (Attribute) attributeEnumeration.nextElement();
+                splitables[attribute.index()] = new Splitable(attribute, minimalInstances, totalWeight);
+                if(histograms != null && ClassHistogram.isUsedFor(dataSet, attribute))
+                {
+                    splitables[attribute.index()].histogram = histograms[attribute.index()];
+                }
+            }
+            buildSplitables(splitables);
+
+            /* Sum the info gains in attribute order, whichever order the splitables were built in */
+            attributeEnumeration = dataSet.getDataSet().enumerateAttributes();
             while(attributeEnumeration.hasMoreElements())
             {
                 Attribute attribute = (Attribute) attributeEnumeration.nextElement();
-                splitables[attribute.index()] = new Splitable(attribute, minimalInstances, dataSet.sumOfWeights());
-                splitables[attribute.index()].buildClassifier(dataSet);
                 if(splitables[attribute.index()].validateNode())
                 {
                     if(dataSet != null)
@@ -318,7 +906,7 @@ public class MyJ48 extends Classifier {
             averageInfoGain = averageInfoGain/(double)usefulSplitables;
 
             minGainRatio = 0;
-            attributeEnumeration = dataSet.enumerateAttributes();
+            attributeEnumeration = dataSet.getDataSet().enumerateAttributes();
             while(attributeEnumeration.hasMoreElements())
             {
                 Attribute attribute = (Attribute) attributeEnumeration.nextElement();
@@ -355,75 +943,417 @@ public class MyJ48 extends Classifier {
         return null;
     }
 
+    /**
+     * Build the splitable of every candidate attribute on this node's rows.
+     * Each splitable only reads the shared rows, so they are built concurrently when there is a pool.
+     * @param splitables splitable per attribute index, NULL for the class attribute
+     */
+    private void buildSplitables(Splitable[] splitables)
+    {
+        if(pool == null || dataSet.numRows() < MIN_ROWS_FOR_PARALLEL_EVALUATION)
+        {
+            for(Splitable splitable : splitables)
+            {
+                if(splitable != null)
+                {
+                    splitable.buildClassifier(dataSet);
+                }
+            }
+        }
+        else
+        {
+            /* The time this thread spends in the parallel section is replaced by the work done in each task */
+            long startTime = BuildTimer.threadTime();
+            List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+            for(final Splitable splitable : splitables)
+            {
+                if(splitable != null)
+                {
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            long taskStartTime = BuildTimer.threadTime();
+                            splitable.buildClassifier(dataSet);
+                            buildTimer.addWork(BuildTimer.threadTime() - taskStartTime);
+                        }
+                    });
+                }
+            }
+            Util.invokeAll(pool, tasks);
+            buildTimer.addWork(startTime - BuildTimer.threadTime());
+        }
+    }
+
     @Override
     public double classifyInstance(Instance instance)
             throws Exception {
 
-        double maxProbability = Double.MAX_VALUE * -1;
-        double currentProb;
-        int maxIndex = 0;
-        int j;
+        return classifyInstance(instance, new double[instance.numClasses()]);
+    }
 
-        for (j = 0; j < instance.numClasses(); j++) {
-            currentProb = getProbs(j, instance);
-            if (Utils.gr(currentProb,maxProbability)) {
-                maxIndex = j;
-                maxProbability = currentProb;
-            }
-        }
+    /**
+     * Classify an instance, using a caller supplied array for its class distribution
+     * @param instance
+     * @param distribution array of numClasses values, overwritten
+     * @return
+     */
+    public double classifyInstance(Instance instance, double[] distribution) {
 
-        return (double)maxIndex;
+        distributionForInstance(instance, distribution);
+        return maxClass(distribution);
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        double [] distribution = new double[instance.numClasses()];
+        distributionForInstance(instance, distribution);
+        return distribution;
     }
 
-    private double getProbs(int classIndex, Instance instance, double weight) {
-        double prob = 0;
+    /**
+     * Compute the class distribution of an instance into a caller supplied array.
+     * The tree is walked once for all classes and nothing is allocated.
+     * @param instance
+     * @param distribution array of numClasses values, overwritten
+     */
+    public void distributionForInstance(Instance instance, double[] distribution) {
+        Arrays.fill(distribution, 0);
+        addDistribution(instance, 1, distribution);
+    }
 
+    /**
+     * Add the weighted class distribution of an instance in this subtree to distribution
+     * @param instance
+     * @param weight weight of the instance in this subtree
+     * @param distribution
+     */
+    private void addDistribution(Instance instance, double weight, double[] distribution) {
         if(is_leaf)
         {
-            return weight * nodeType.classProb(classIndex, instance, -1);
+            for(int j=0; j<distribution.length; j++)
+            {
+                distribution[j] += weight * nodeType.classDistribution.prob(j);
+            }
         }
         else
         {
             int subsetIndex = nodeType.getSubsetIndex(instance);
             if(subsetIndex == -1)
             {
-                double[] weights = nodeType.getWeights(instance);
+                double[] weights = nodeType.getMissingValueWeights();
                 for(int i=0; i<childs.length; i++)
                 {
                     if(!childs[i].is_empty)
                     {
-                        prob += childs[i].getProbs(classIndex, instance, weights[i]*weight);
+                        childs[i].addDistribution(instance, weights[i]*weight, distribution);
                     }
                 }
-                return prob;
             }
             else
             {
                 if(childs[subsetIndex].is_empty)
                 {
-                    return weight * nodeType.classProb(classIndex, instance, subsetIndex);
+                    for(int j=0; j<distribution.length; j++)
+                    {
+                        distribution[j] += weight * nodeType.classDistribution.prob(j, subsetIndex);
+                    }
                 }
                 else
                 {
-                    return childs[subsetIndex].getProbs(classIndex,instance,weight);
+                    childs[subsetIndex].addDistribution(instance, weight, distribution);
                 }
             }
         }
     }
 
     /**
-     * Get the probability of a class
-     * @param classIndex
-     * @param instance
+     * Compute the class distribution of a row of attribute values into a caller supplied array
+     * @param values attribute values, indexed like the training data set's attributes
+     * @param distribution array of numClasses values, overwritten
+     */
+    public void distributionForRow(double[] values, double[] distribution) {
+        Arrays.fill(distribution, 0);
+        addDistribution(values, null, 0, 1, distribution);
+    }
+
+    /**
+     * Add the weighted class distribution of a row in this subtree to distribution.
+     * The row is either an array of attribute values or a row of a batch stored column by column.
+     * @param values attribute values of the row, NULL if the row is read from columns
+     * @param columns values of each attribute, used when values is NULL
+     * @param row index of the row in columns
+     * @param weight weight of the row in this subtree
+     * @param distribution
+     */
+    private void addDistribution(double[] values, double[][] columns, int row, double weight, double[] distribution) {
+        if(is_leaf)
+        {
+            for(int j=0; j<distribution.length; j++)
+            {
+                distribution[j] += weight * nodeType.classDistribution.prob(j);
+            }
+        }
+        else
+        {
+            int attributeIndex = nodeType.getAttributeIndex();
+            double value = Instance.missingValue();
+            if(attributeIndex >= 0)
+            {
+                value = values != null ? values[attributeIndex] : columns[attributeIndex][row];
+            }
+            int subsetIndex = nodeType.getSubsetIndex(value);
+            if(subsetIndex == -1)
+            {
+                double[] weights = nodeType.getMissingValueWeights();
+                for(int i=0; i<childs.length; i++)
+                {
+                    if(!childs[i].is_empty)
+                    {
+                        childs[i].addDistribution(values, columns, row, weights[i]*weight, distribution);
+                    }
+                }
+            }
+            else
+            {
+                if(childs[subsetIndex].is_empty)
+                {
+                    for(int j=0; j<distribution.length; j++)
+                    {
+                        distribution[j] += weight * nodeType.classDistribution.prob(j, subsetIndex);
+                    }
+                }
+                else
+                {
+                    childs[subsetIndex].addDistribution(values, columns, row, weight, distribution);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the class with the highest probability, the first one on ties like classifyInstance
+     * @param distribution
      * @return
      */
-    private double getProbs(int classIndex, Instance instance) {
-        return getProbs(classIndex, instance, 1);
+    private static double maxClass(double[] distribution) {
+        double maxProbability = Double.MAX_VALUE * -1;
+        int maxIndex = 0;
+
+        for (int j = 0; j < distribution.length; j++) {
+            if (Utils.gr(distribution[j],maxProbability)) {
+                maxIndex = j;
+                maxProbability = distribution[j];
+            }
+        }
+        return (double)maxIndex;
+    }
+
+    /**
+     * Classify a batch of rows, in blocks spread over numExecutionSlots threads
+     * @param rows attribute values of each row, indexed like the training data set's attributes
+     * @param out receives the class value of each row
+     * @throws Exception
+     */
+    public void classifyBatch(final double[][] rows, final double[] out) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) {
+                double [] distribution = new double[header.numClasses()];
+                for(int i=from; i<to; i++)
+                {
+                    Arrays.fill(distribution, 0);
+                    addDistribution(rows[i], null, 0, 1, distribution);
+                    out[i] = maxClass(distribution);
+                }
+            }
+        }.score(rows.length, numExecutionSlots);
     }
 
-    @Override
-    public double[] distributionForInstance(Instance instance) throws Exception {
-        return super.distributionForInstance(instance);
+    /**
+     * Compute the class distribution of a batch of rows, in blocks spread over numExecutionSlots threads
+     * @param rows attribute values of each row, indexed like the training data set's attributes
+     * @param out receives the class distribution of each row
+     * @throws Exception
+     */
+    public void distributionBatch(final double[][] rows, final double[][] out) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) {
+                for(int i=from; i<to; i++)
+                {
+                    Arrays.fill(out[i], 0);
+                    addDistribution(rows[i], null, 0, 1, out[i]);
+                }
+            }
+        }.score(rows.length, numExecutionSlots);
+    }
+
+    /**
+     * Classify a batch of rows stored column by column
+     * @param columns values of each attribute, indexed like the training data set's attributes (unused columns may be NULL)
+     * @param out receives the class value of each row, its length is the number of rows
+     * @throws Exception
+     */
+    public void classifyColumns(final double[][] columns, final double[] out) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) {
+                double [] distribution = new double[header.numClasses()];
+                for(int i=from; i<to; i++)
+                {
+                    Arrays.fill(distribution, 0);
+                    addDistribution(null, columns, i, 1, distribution);
+                    out[i] = maxClass(distribution);
+                }
+            }
+        }.score(out.length, numExecutionSlots);
+    }
+
+    /**
+     * Compute the class distribution of a batch of rows stored column by column
+     * @param columns values of each attribute, indexed like the training data set's attributes (unused columns may be NULL)
+     * @param out receives the class distribution of each row, its length is the number of rows
+     * @throws Exception
+     */
+    public void distributionColumns(final double[][] columns, final double[][] out) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) {
+                for(int i=from; i<to; i++)
+                {
+                    Arrays.fill(out[i], 0);
+                    addDistribution(null, columns, i, 1, out[i]);
+                }
+            }
+        }.score(out.length, numExecutionSlots);
+    }
+
+    /**
+     * Drop every reference to the training rows, so a trained tree only holds the header, the splits
+     * and the distributions that printing and classification need.
+     * The tree can't be pruned anymore afterwards.
+     */
+    public void finishTraining() {
+        dataSet = null;
+        subDataset = null;
+        splitables = null;
+        histograms = null;
+        nodeType.finishTraining();
+        if(!is_leaf)
+        {
+            for(int i=0; i<childs.length; i++)
+            {
+                childs[i].finishTraining();
+            }
+        }
+    }
+
+    /**
+     * Flatten the trained tree into arrays, nodes numbered breadth first so the children of a node are next to each other.
+     * An empty node becomes a leaf with the distribution of its subset in its parent and no weight for missing values,
+     * which is how classification treats it.
+     * @return
+     * @throws Exception if no model has been built yet
+     */
+    public FlatTree flatten() throws Exception {
+        if(nodeType == null)
+        {
+            throw new Exception("MyJ48: No model built yet.");
+        }
+
+        List<MyJ48> nodes = new ArrayList<MyJ48>();
+        List<MyJ48> parents = new ArrayList<MyJ48>();
+        List<Integer> subsets = new ArrayList<Integer>();
+        int numLeaves = 0;
+        nodes.add(this);
+        parents.add(null);
+        subsets.add(-1);
+        for(int i=0; i<nodes.size(); i++)
+        {
+            MyJ48 node = nodes.get(i);
+            if(node.isFlatLeaf(parents.get(i)))
+            {
+                numLeaves++;
+            }
+            else
+            {
+                for(int j=0; j<node.childs.length; j++)
+                {
+                    nodes.add(node.childs[j]);
+                    parents.add(node);
+                    subsets.add(j);
+                }
+            }
+        }
+
+        FlatTree tree = new FlatTree(header, nodes.size(), numLeaves, true);
+        int numClasses = tree.numClasses();
+        int nextChild = 1;
+        int nextLeaf = 0;
+        for(int i=0; i<nodes.size(); i++)
+        {
+            MyJ48 node = nodes.get(i);
+            MyJ48 parent = parents.get(i);
+            int subset = subsets.get(i);
+            if(parent != null && !node.is_empty)
+            {
+                tree.missingWeight[i] = parent.nodeType.getMissingValueWeights()[subset];
+            }
+            tree.splitPoint[i] = Double.NaN;
+            if(node.isFlatLeaf(parent))
+            {
+                tree.kind[i] = FlatTree.LEAF;
+                tree.attributeIndex[i] = -1;
+                tree.firstChild[i] = nextLeaf;
+                tree.leafClass[nextLeaf] = Double.NaN;
+                for(int j=0; j<numClasses; j++)
+                {
+                    tree.leafDistribution[nextLeaf * numClasses + j] = parent != null && node.is_empty ?
+                            parent.nodeType.classDistribution.prob(j, subset) : node.nodeType.classDistribution.prob(j);
+                }
+                nextLeaf++;
+            }
+            else
+            {
+                tree.attributeIndex[i] = node.nodeType.getAttributeIndex();
+                if(header.attribute(tree.attributeIndex[i]).isNumeric())
+                {
+                    tree.kind[i] = FlatTree.NUMERIC_SPLIT;
+                    tree.splitPoint[i] = ((Splitable) node.nodeType).splitPointValue;
+                }
+                else
+                {
+                    tree.kind[i] = FlatTree.NOMINAL_SPLIT;
+                }
+                tree.firstChild[i] = nextChild;
+                tree.numChilds[i] = node.childs.length;
+                nextChild += node.childs.length;
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Check whether this node is a leaf of the flattened tree: a leaf, or an empty node below a split
+     * @param parent
+     * @return
+     */
+    private boolean isFlatLeaf(MyJ48 parent) {
+        return is_leaf || (parent != null && is_empty);
+    }
+
+    /**
+     * Precompute what classification needs once the tree won't change anymore
+     */
+    private void prepareForClassification() {
+        nodeType.prepareForClassification();
+        if(!is_leaf)
+        {
+            for(int i=0; i<childs.length; i++)
+            {
+                childs[i].prepareForClassification();
+            }
+        }
     }
 
     @Override
@@ -454,7 +1384,7 @@ public class MyJ48 extends Classifier {
 
             if (is_leaf) {
                 text.append(": ");
-                text.append(nodeType.printLabel(0, dataSet));
+                text.append(nodeType.printLabel(0, header));
             }else
                 printTree(0, text);
             text.append("\n\nNumber of Leaves  : \t"+(numLeaves())+"\n");
@@ -507,11 +1437,11 @@ public class MyJ48 extends Classifier {
             text.append("\n");;
             for (j=0;j<depth;j++)
                 text.append("|   ");
-            text.append(nodeType.leftSide(dataSet));
-            text.append(nodeType.rightSide(i, dataSet));
+            text.append(nodeType.leftSide(header));
+            text.append(nodeType.rightSide(i, header));
             if (childs[i].is_leaf) {
                 text.append(": ");
-                text.append(nodeType.printLabel(i, dataSet));
+                text.append(nodeType.printLabel(i, header));
             }else
                 childs[i].printTree(depth + 1, text);
         }
@@ -533,6 +1463,129 @@ public class MyJ48 extends Classifier {
         }
     }
 
+    /**
+     * Set whether the numeric attributes are sorted once at the root
+     * @param presortNumericAttributes
+     */
+    public void setPresortNumericAttributes(boolean presortNumericAttributes) {
+        this.presortNumericAttributes = presortNumericAttributes;
+    }
+
+    /**
+     * Return whether the numeric attributes are sorted once at the root
+     * @return
+     */
+    public boolean getPresortNumericAttributes() {
+        return presortNumericAttributes;
+    }
+
+    /**
+     * Set whether identical rows are collapsed into a single weighted row before growing the tree,
+     * ignored for columns read from files
+     * @param deduplicateRows
+     */
+    public void setDeduplicateRows(boolean deduplicateRows) {
+        this.deduplicateRows = deduplicateRows;
+    }
+
+    /**
+     * Return whether identical rows are collapsed into a single weighted row before growing the tree
+     * @return
+     */
+    public boolean getDeduplicateRows() {
+        return deduplicateRows;
+    }
+
+    /**
+     * Set the number of bins of each numeric attribute for the approximate split search, 0 for the exact search.
+     * Without presorting, the small nodes using the exact search sort their own rows, which is usually faster
+     * than keeping the presorted lists of every node.
+     * @param numHistogramBins
+     */
+    public void setNumHistogramBins(int numHistogramBins) {
+        this.numHistogramBins = numHistogramBins;
+    }
+
+    /**
+     * Return the number of bins of each numeric attribute for the approximate split search
+     * @return
+     */
+    public int getNumHistogramBins() {
+        return numHistogramBins;
+    }
+
+    /**
+     * Set the minimal number of rows of a node for the approximate split search
+     * @param histogramMinRows
+     */
+    public void setHistogramMinRows(int histogramMinRows) {
+        this.histogramMinRows = histogramMinRows;
+    }
+
+    /**
+     * Return the minimal number of rows of a node for the approximate split search
+     * @return
+     */
+    public int getHistogramMinRows() {
+        return histogramMinRows;
+    }
+
+    /**
+     * Set the number of threads used to evaluate the candidate attributes of a node and to score batches
+     * @param numExecutionSlots
+     */
+    public void setNumExecutionSlots(int numExecutionSlots) {
+        this.numExecutionSlots = numExecutionSlots;
+    }
+
+    /**
+     * Return the number of threads used to evaluate the candidate attributes of a node and to score batches
+     * @return
+     */
+    public int getNumExecutionSlots() {
+        return numExecutionSlots;
+    }
+
+    /**
+     * Set the minimal number of rows for a subtree to be built as a separate task
+     * @param parallelSubtreeThreshold
+     */
+    public void setParallelSubtreeThreshold(int parallelSubtreeThreshold) {
+        this.parallelSubtreeThreshold = parallelSubtreeThreshold;
+    }
+
+    /**
+     * Return the minimal number of rows for a subtree to be built as a separate task
+     * @return
+     */
+    public int getParallelSubtreeThreshold() {
+        return parallelSubtreeThreshold;
+    }
+
+    /**
+     * Return the speedup achieved by the last build, 1 for a sequential build
+     * @return
+     */
+    public double getParallelSpeedup() {
+        return buildTimer == null ? 1 : buildTimer.getSpeedup();
+    }
+
+    /**
+     * Return the timing of the last build
+     * @return
+     */
+    public BuildTimer getBuildTimer() {
+        return buildTimer;
+    }
+
+    /**
+     * Return the bytes read from the columns' files by the last build, per tree level
+     * @return NULL if the last build was trained on columns in memory
+     */
+    public IoStatistics getIoStatistics() {
+        return ioStatistics;
+    }
+
     public static void main (String [] args) throws Exception {
 //        Instances dataSet = Util.readARFF("weather.nominal.arff");
 //        Instances dataSet = Util.readARFF("weather.numeric.arff");
@@ -1,13 +1,16 @@
 package MyJ48;
 
+import Util.ColumnarDataSet;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
 
+import java.io.Serializable;
+
 /**
  * Created by timothy.pratama on 24-Sep-15.
  */
-public class NodeType {
+public class NodeType implements Serializable {
     public J48ClassDistribution classDistribution;
     public int numOfSubsets;
 
@@ -21,6 +24,36 @@ public class NodeType {
         return -1;
     }
 
+    /**
+     * Return the subset of a row of the training data set, -1 if its value is missing
+     * @param columns
+     * @param row
+     * @return
+     */
+    public int getSubsetIndex(ColumnarDataSet columns, int row)
+    {
+        return -1;
+    }
+
+    /**
+     * Return the index of the attribute used for splitting, -1 if this node doesn't split on an attribute
+     * @return
+     */
+    public int getAttributeIndex()
+    {
+        return -1;
+    }
+
+    /**
+     * Return the subset of a value of the split attribute, -1 if the value is missing
+     * @param value
+     * @return
+     */
+    public int getSubsetIndex(double value)
+    {
+        return -1;
+    }
+
     /**
      * get the weights for an instance
      * @param instance
@@ -32,52 +65,198 @@ public class NodeType {
     }
 
     /**
-     * Split the dataset insto several subdataset based on attribute value
-     * @param dataSet
+     * get the weights for a row of the training data set
+     * @param columns
+     * @param row
+     * @return
+     */
+    public double [] getWeights(ColumnarDataSet columns, int row)
+    {
+        return null;
+    }
+
+    /**
+     * Split the rows insto several row sets based on attribute value.
+     * When no row has a missing value the rows are partitioned in place (stable), so every
+     * subset is a range of the parent's index and weight arrays. Otherwise a row with missing value
+     * belongs to several subsets and the subsets are stored in new index and weight arrays.
+     * @param rows
      * @return
      */
-    public Instances[] split(Instances dataSet)
+    public RowSet[] split(RowSet rows)
+    {
+        RowSet [] subDataset = new RowSet[numOfSubsets];
+        Partition partition = partition(rows.columns, rows.indices, rows.weights, rows.start, rows.end);
+
+        for(int j=0; j<numOfSubsets; j++)
+        {
+            subDataset[j] = new RowSet(rows.columns, partition.indices, partition.weights,
+                    partition.start[j], partition.end[j]);
+            subDataset[j].numericBins = rows.numericBins;
+            subDataset[j].rowCounts = rows.rowCounts;
+        }
+        return subDataset;
+    }
+
+    /**
+     * Split the presorted attribute lists of the rows into the subsets created by split.
+     * The lists are partitioned stably, so each subset's lists stay sorted.
+     * @param rows
+     * @param subDataset
+     */
+    public void splitSortedLists(RowSet rows, RowSet[] subDataset)
     {
-        Instances [] subDataset = new Instances[numOfSubsets];
-        double weights[];
-        double newWeight;
-        Instance instance;
-        int subset;
+        if(rows.sortedIndices == null)
+        {
+            return;
+        }
 
-        for(int i=0; i<numOfSubsets; i++)
+        int numAttributes = rows.sortedIndices.length;
+        for(int j=0; j<numOfSubsets; j++)
         {
-            subDataset[i] = new Instances(dataSet, dataSet.numInstances());
+            subDataset[j].sortedIndices = new int[numAttributes][];
+            subDataset[j].sortedWeights = new double[numAttributes][];
+            subDataset[j].sortedStart = new int[numAttributes];
+            subDataset[j].sortedEnd = new int[numAttributes];
         }
 
-        for(int i=0; i<dataSet.numInstances(); i++)
+        for(int a=0; a<numAttributes; a++)
         {
-            instance = dataSet.instance(i);
-            weights = getWeights(instance);
-            subset = getSubsetIndex(instance);
+            if(rows.sortedIndices[a] == null)
+            {
+                continue;
+            }
+            Partition partition = partition(rows.columns, rows.sortedIndices[a], rows.sortedWeights[a],
+                    rows.sortedStart[a], rows.sortedEnd[a]);
+            for(int j=0; j<numOfSubsets; j++)
+            {
+                subDataset[j].sortedIndices[a] = partition.indices;
+                subDataset[j].sortedWeights[a] = partition.weights;
+                subDataset[j].sortedStart[a] = partition.start[j];
+                subDataset[j].sortedEnd[a] = partition.end[j];
+            }
+        }
+    }
+
+    /**
+     * Stable partition of a range of row indices (and their weights) into the subsets of this node
+     * @param columns shared data set
+     * @param rowIndices row indices into the data set
+     * @param rowWeights weight of each row
+     * @param from first position (inclusive)
+     * @param to last position (exclusive)
+     * @return
+     */
+    private Partition partition(ColumnarDataSet columns, int[] rowIndices, double[] rowWeights, int from, int to)
+    {
+        Partition partition = new Partition();
+        int [] subsetOfRow = new int[to - from];
+        int [] subsetSize = new int[numOfSubsets];
+        int [] position = new int[numOfSubsets];
+        double [][] weightsOfRow = null;
+        int [] indices;
+        double [] weights;
+        int numMissing = 0;
+        int offset;
+        int base;
+
+        /* Find the subset of each row */
+        for(int i=from; i<to; i++)
+        {
+            int subset = getSubsetIndex(columns, rowIndices[i]);
+            subsetOfRow[i - from] = subset;
             if(subset > -1)
             {
-                subDataset[subset].add(instance);
+                subsetSize[subset]++;
             }
             else
             {
+                double [] missingWeights = getWeights(columns, rowIndices[i]);
+                if(weightsOfRow == null)
+                {
+                    weightsOfRow = new double[to - from][];
+                }
+                weightsOfRow[i - from] = missingWeights;
                 for(int j=0; j<numOfSubsets; j++)
                 {
-                    if(Utils.gr(weights[j],0))
+                    if(Utils.gr(missingWeights[j],0))
                     {
-                        newWeight = weights[j] * instance.weight();
-                        subDataset[j].add(instance);
-                        subDataset[j].lastInstance().setWeight(newWeight);
+                        subsetSize[j]++;
                     }
                 }
+                numMissing++;
             }
         }
 
+        int total = 0;
         for(int j=0; j<numOfSubsets; j++)
         {
-            subDataset[j].compactify();
+            total += subsetSize[j];
         }
+        indices = new int[total];
+        weights = new double[total];
 
-        return subDataset;
+        /* If every row goes to exactly one subset, the partition is copied back into the parent's range */
+        base = (numMissing == 0) ? from : 0;
+        offset = 0;
+        partition.start = new int[numOfSubsets];
+        partition.end = new int[numOfSubsets];
+        for(int j=0; j<numOfSubsets; j++)
+        {
+            position[j] = offset;
+            partition.start[j] = base + offset;
+            offset += subsetSize[j];
+            partition.end[j] = base + offset;
+        }
+
+        for(int i=from; i<to; i++)
+        {
+            int subset = subsetOfRow[i - from];
+            if(subset > -1)
+            {
+                indices[position[subset]] = rowIndices[i];
+                weights[position[subset]] = rowWeights[i];
+                position[subset]++;
+            }
+            else
+            {
+                double [] missingWeights = weightsOfRow[i - from];
+                for(int j=0; j<numOfSubsets; j++)
+                {
+                    if(Utils.gr(missingWeights[j],0))
+                    {
+                        indices[position[j]] = rowIndices[i];
+                        weights[position[j]] = missingWeights[j] * rowWeights[i];
+                        position[j]++;
+                    }
+                }
+            }
+        }
+
+        if(numMissing == 0)
+        {
+            System.arraycopy(indices, 0, rowIndices, from, total);
+            System.arraycopy(weights, 0, rowWeights, from, total);
+            partition.indices = rowIndices;
+            partition.weights = rowWeights;
+        }
+        else
+        {
+            partition.indices = indices;
+            partition.weights = weights;
+        }
+        return partition;
+    }
+
+    /**
+     * The index and weight arrays holding the subsets of a partition, and the range of each subset
+     */
+    private static class Partition
+    {
+        int [] indices;
+        double [] weights;
+        int [] start;
+        int [] end;
     }
 
     public final String printLabel(int index, Instances data) throws Exception {
@@ -128,7 +307,31 @@ public class NodeType {
         }
     }
 
-    public void resetDistribution(Instances dataSet) {
-        classDistribution = new J48ClassDistribution(dataSet, this);
+    /**
+     * Return the weight of each subset for an instance with a missing value, precomputed by
+     * prepareForClassification
+     * @return
+     */
+    public double [] getMissingValueWeights()
+    {
+        return null;
+    }
+
+    /**
+     * Precompute what classification needs once the distribution won't change anymore
+     */
+    public void prepareForClassification()
+    {
+    }
+
+    /**
+     * Drop the references to the training rows once the tree is trained
+     */
+    public void finishTraining()
+    {
+    }
+
+    public void resetDistribution(RowSet rows) {
+        classDistribution = new J48ClassDistribution(rows, this);
     }
 }
@@ -1,5 +1,6 @@
 package MyJ48;
 
+import Util.ColumnarDataSet;
 import weka.core.Instance;
 import weka.core.Instances;
 
@@ -19,11 +20,26 @@ public class NotSplitable extends NodeType{
         return 0;
     }
 
+    @Override
+    public int getSubsetIndex(double value) {
+        return 0;
+    }
+
+    @Override
+    public int getSubsetIndex(ColumnarDataSet columns, int row) {
+        return 0;
+    }
+
     @Override
     public double[] getWeights(Instance instance) {
         return null;
     }
 
+    @Override
+    public double[] getWeights(ColumnarDataSet columns, int row) {
+        return null;
+    }
+
     @Override
     public final String leftSide(Instances instances){
 
@@ -0,0 +1,119 @@
+package MyJ48;
+
+import weka.core.Attribute;
+
+import java.util.Arrays;
+
+/**
+ * Numeric attributes quantized into bins once for the whole tree, for the approximate split search.
+ * Bins hold about the same weight of rows, and a bin never splits a group of equal values, so every
+ * boundary between two bins is also a candidate of the exact search.
+ */
+public class NumericBins {
+
+    /**
+     * Per numeric attribute, the bin of every row of the shared data set, -1 if the value is missing.
+     * NULL for every nominal attribute.
+     */
+    short[][] binOfRow;
+
+    /**
+     * Per numeric attribute, the split point between bin b and bin b+1
+     */
+    double[][] splitPoints;
+
+    /**
+     * Per numeric attribute, the number of bins
+     */
+    int[] numBins;
+
+    /**
+     * Nodes with fewer rows than this use the exact split search
+     */
+    int minRows;
+
+    /**
+     * Quantize every numeric attribute of the rows
+     * @param rows rows of the root, presorted or not
+     * @param maxBins maximal number of bins per attribute
+     * @param minRows nodes with fewer rows than this use the exact split search
+     */
+    public NumericBins(RowSet rows, int maxBins, int minRows)
+    {
+        int numAttributes = rows.columns.numAttributes();
+        if(maxBins < 2 || maxBins > Short.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("The number of bins must be between 2 and " + Short.MAX_VALUE);
+        }
+
+        this.minRows = minRows;
+        binOfRow = new short[numAttributes][];
+        splitPoints = new double[numAttributes][];
+        numBins = new int[numAttributes];
+        for(int a=0; a<numAttributes; a++)
+        {
+            Attribute attribute = rows.getDataSet().attribute(a);
+            if(a != rows.columns.classIndex() && attribute.isNumeric())
+            {
+                binAttribute(rows, attribute, maxBins);
+            }
+        }
+    }
+
+    /**
+     * Quantize an attribute, closing a bin as soon as its cumulative weight reaches its share
+     * and the next value is different
+     * @param rows
+     * @param attribute
+     * @param maxBins
+     */
+    private void binAttribute(RowSet rows, Attribute attribute, int maxBins)
+    {
+        int a = attribute.index();
+        RowSet sortedRows = rows.sortedRows(attribute);
+        int first = sortedRows.start;
+        int numKnown = sortedRows.numRows();
+        double totalWeight = sortedRows.sumOfWeights();
+
+        short[] bins = new short[rows.columns.numRows()];
+        Arrays.fill(bins, (short) -1);
+        double[] points = new double[maxBins];
+        int bin = 0;
+        double cumulativeWeight = 0;
+        for(int i=0; i<numKnown; i++)
+        {
+            bins[sortedRows.indices[first + i]] = (short) bin;
+            cumulativeWeight = cumulativeWeight + sortedRows.weights[first + i];
+            if(i + 1 < numKnown && bin + 1 < maxBins && cumulativeWeight >= totalWeight * (bin + 1) / maxBins)
+            {
+                double value = sortedRows.value(first + i, attribute);
+                double nextValue = sortedRows.value(first + i + 1, attribute);
+                if(value + 0.00001 < nextValue)
+                {
+                    /* Same split point as the exact search would choose at this boundary */
+                    points[bin] = (value + nextValue) / 2;
+                    if(points[bin] == nextValue)
+                    {
+                        points[bin] = value;
+                    }
+                    bin++;
+                }
+            }
+        }
+
+        binOfRow[a] = bins;
+        numBins[a] = bin + 1;
+        splitPoints[a] = Arrays.copyOf(points, bin + 1);
+    }
+
+    /**
+     * Check whether the approximate split search should be used for an attribute of a node
+     * @param attribute
+     * @param rows rows of the node
+     * @return
+     */
+    public boolean useBins(Attribute attribute, RowSet rows)
+    {
+        return binOfRow[attribute.index()] != null && rows.numInstances() >= minRows;
+    }
+}
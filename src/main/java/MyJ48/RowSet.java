@@ -0,0 +1,373 @@
+package MyJ48;
+
+import Util.ColumnarDataSet;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.Arrays;
+
+/**
+ * A range of rows from a shared training data set.
+ * The data set itself is never copied nor modified, a node only owns a range of the row index array
+ * and a parallel weight array that holds the (possibly fractional) weight of each row in this node.
+ * The data set is stored in columns, every value is read from a primitive array.
+ */
+public class RowSet {
+
+    /**
+     * The shared training data set
+     */
+    ColumnarDataSet columns;
+
+    /**
+     * Row indices into the shared data set
+     */
+    int[] indices;
+
+    /**
+     * Weight of each row, parallel to indices
+     */
+    double[] weights;
+
+    /**
+     * First position (inclusive) of this row set in indices and weights
+     */
+    int start;
+
+    /**
+     * Last position (exclusive) of this row set in indices and weights
+     */
+    int end;
+
+    /**
+     * Per numeric attribute, the row indices of the rows with a known value sorted by that value.
+     * NULL if the numeric attributes are not presorted, and NULL for every nominal attribute.
+     */
+    int[][] sortedIndices;
+
+    /**
+     * Weight of each row in sortedIndices
+     */
+    double[][] sortedWeights;
+
+    /**
+     * Per attribute, first position (inclusive) of this row set in sortedIndices and sortedWeights
+     */
+    int[] sortedStart;
+
+    /**
+     * Per attribute, last position (exclusive) of this row set in sortedIndices and sortedWeights
+     */
+    int[] sortedEnd;
+
+    /**
+     * The numeric attributes quantized for the approximate split search, shared by every node.
+     * NULL if the split search is exact.
+     */
+    NumericBins numericBins;
+
+    /**
+     * Number of instances each row of the data set stands for when identical instances were collapsed
+     * into a single weighted row, shared by every node. NULL if every row is a single instance.
+     */
+    int[] rowCounts;
+
+    /**
+     * Create a row set with all the rows of the data set which have a class value
+     * @param columns shared training data set
+     */
+    public RowSet(ColumnarDataSet columns)
+    {
+        int numRows = 0;
+
+        this.columns = columns;
+        indices = new int[columns.numRows()];
+        weights = new double[columns.numRows()];
+        for(int i=0; i<columns.numRows(); i++)
+        {
+            if(!columns.classIsMissing(i))
+            {
+                indices[numRows] = i;
+                weights[numRows] = columns.weight(i);
+                numRows++;
+            }
+        }
+        start = 0;
+        end = numRows;
+    }
+
+    /**
+     * Create a row set over a range of existing index and weight arrays
+     * @param columns shared training data set
+     * @param indices row indices into the data set
+     * @param weights weight of each row
+     * @param start first position (inclusive)
+     * @param end last position (exclusive)
+     */
+    public RowSet(ColumnarDataSet columns, int[] indices, double[] weights, int start, int end)
+    {
+        this.columns = columns;
+        this.indices = indices;
+        this.weights = weights;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Sort the rows by every numeric attribute once.
+     * Splitting a node keeps the order of these lists, so every descendant gets its rows already sorted.
+     */
+    public void presortNumericAttributes()
+    {
+        Instances header = columns.getHeader();
+        sortedIndices = new int[header.numAttributes()][];
+        sortedWeights = new double[header.numAttributes()][];
+        sortedStart = new int[header.numAttributes()];
+        sortedEnd = new int[header.numAttributes()];
+
+        for(int a=0; a<header.numAttributes(); a++)
+        {
+            Attribute attribute = header.attribute(a);
+            if(a != header.classIndex() && attribute.isNumeric())
+            {
+                RowSet sorted = sortedBy(attribute);
+                sortedIndices[a] = sorted.indices;
+                sortedWeights[a] = sorted.weights;
+                sortedStart[a] = sorted.start;
+                sortedEnd[a] = sorted.end;
+            }
+        }
+    }
+
+    /**
+     * Quantize the numeric attributes for the approximate split search
+     * @param maxBins maximal number of bins per attribute
+     * @param minRows nodes with fewer rows than this use the exact split search
+     */
+    public void binNumericAttributes(int maxBins, int minRows)
+    {
+        numericBins = new NumericBins(this, maxBins, minRows);
+    }
+
+    /**
+     * Check whether the rows of this row set are already sorted by an attribute
+     * @param attribute
+     * @return
+     */
+    public boolean isPresorted(Attribute attribute)
+    {
+        return sortedIndices != null && sortedIndices[attribute.index()] != null;
+    }
+
+    /**
+     * Return the rows with a known value for an attribute, in ascending (stable) order of that value.
+     * The presorted list is returned directly if there is one, otherwise the rows are sorted.
+     * @param attribute
+     * @return
+     */
+    public RowSet sortedRows(Attribute attribute)
+    {
+        if(isPresorted(attribute))
+        {
+            int a = attribute.index();
+            RowSet rows = new RowSet(columns, sortedIndices[a], sortedWeights[a], sortedStart[a], sortedEnd[a]);
+            rows.rowCounts = rowCounts;
+            return rows;
+        }
+        else
+        {
+            return sortedBy(attribute);
+        }
+    }
+
+    /**
+     * Sort the rows with a known value for an attribute by that value into new index and weight arrays.
+     * The shared data set is left untouched.
+     * @param attribute
+     * @return
+     */
+    private RowSet sortedBy(Attribute attribute)
+    {
+        int numKnown = 0;
+        for(int i=start; i<end; i++)
+        {
+            if(!isMissing(i, attribute))
+            {
+                numKnown++;
+            }
+        }
+
+        int [] positions = new int[numKnown];
+        double [] values = new double[numKnown];
+        int j = 0;
+        for(int i=start; i<end; i++)
+        {
+            if(!isMissing(i, attribute))
+            {
+                positions[j] = i;
+                values[j] = value(i, attribute);
+                j++;
+            }
+        }
+
+        int [] order = Utils.stableSort(values);
+        int [] sortedRowIndices = new int[numKnown];
+        double [] sortedRowWeights = new double[numKnown];
+        for(int i=0; i<numKnown; i++)
+        {
+            sortedRowIndices[i] = indices[positions[order[i]]];
+            sortedRowWeights[i] = weights[positions[order[i]]];
+        }
+        RowSet rows = new RowSet(columns, sortedRowIndices, sortedRowWeights, 0, numKnown);
+        rows.rowCounts = rowCounts;
+        return rows;
+    }
+
+    /**
+     * Return a copy of the rows in new index and weight arrays, so splitting the copy in place
+     * leaves this row set untouched
+     * @return
+     */
+    public RowSet copy()
+    {
+        RowSet rows = new RowSet(columns, Arrays.copyOfRange(indices, start, end),
+                Arrays.copyOfRange(weights, start, end), 0, numRows());
+        rows.numericBins = numericBins;
+        rows.rowCounts = rowCounts;
+        return rows;
+    }
+
+    /**
+     * Return a copy of the rows outside a part of this row set, in new index and weight arrays
+     * @param part a range of the same index and weight arrays within this row set
+     * @return
+     */
+    public RowSet without(RowSet part)
+    {
+        int numBefore = part.start - start;
+        int numAfter = end - part.end;
+        int [] otherIndices = new int[numBefore + numAfter];
+        double [] otherWeights = new double[numBefore + numAfter];
+        System.arraycopy(indices, start, otherIndices, 0, numBefore);
+        System.arraycopy(weights, start, otherWeights, 0, numBefore);
+        System.arraycopy(indices, part.end, otherIndices, numBefore, numAfter);
+        System.arraycopy(weights, part.end, otherWeights, numBefore, numAfter);
+        RowSet rows = new RowSet(columns, otherIndices, otherWeights, 0, numBefore + numAfter);
+        rows.numericBins = numericBins;
+        rows.rowCounts = rowCounts;
+        return rows;
+    }
+
+    /**
+     * Return the attributes of the shared data set
+     * @return
+     */
+    public Instances getDataSet()
+    {
+        return columns.getHeader();
+    }
+
+    /**
+     * Return the number of rows in this row set
+     * @return
+     */
+    public int numRows()
+    {
+        return end - start;
+    }
+
+    /**
+     * Return the number of instances in this row set, a row collapsed from several identical instances
+     * counting for each of them
+     * @return
+     */
+    public int numInstances()
+    {
+        if(rowCounts == null)
+        {
+            return numRows();
+        }
+        int numInstances = 0;
+        for(int i=start; i<end; i++)
+        {
+            numInstances = numInstances + rowCounts[indices[i]];
+        }
+        return numInstances;
+    }
+
+    /**
+     * Return the number of instances the row at a position stands for
+     * @param position position in [start, end)
+     * @return
+     */
+    public int count(int position)
+    {
+        return rowCounts == null ? 1 : rowCounts[indices[position]];
+    }
+
+    /**
+     * Return the number of classes of the data set
+     * @return
+     */
+    public int numClasses()
+    {
+        return columns.numClasses();
+    }
+
+    /**
+     * Return the weight of the row at a position
+     * @param position position in [start, end)
+     * @return
+     */
+    public double weight(int position)
+    {
+        return weights[position];
+    }
+
+    /**
+     * Return the class index of the row at a position
+     * @param position position in [start, end)
+     * @return
+     */
+    public int classValue(int position)
+    {
+        return columns.classValue(indices[position]);
+    }
+
+    /**
+     * Return the value of an attribute of the row at a position
+     * @param position position in [start, end)
+     * @param attribute
+     * @return
+     */
+    public double value(int position, Attribute attribute)
+    {
+        return columns.value(indices[position], attribute.index());
+    }
+
+    /**
+     * Check whether an attribute of the row at a position is missing
+     * @param position position in [start, end)
+     * @param attribute
+     * @return
+     */
+    public boolean isMissing(int position, Attribute attribute)
+    {
+        return columns.isMissing(indices[position], attribute.index());
+    }
+
+    /**
+     * Return the total weight of the rows
+     * @return
+     */
+    public double sumOfWeights()
+    {
+        double sum = 0;
+        for(int i=start; i<end; i++)
+        {
+            sum = sum + weights[i];
+        }
+        return sum;
+    }
+}
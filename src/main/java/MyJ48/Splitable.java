@@ -1,12 +1,11 @@
 package MyJ48;
 
+import Util.ColumnarDataSet;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
 
-import java.util.Enumeration;
-
 /**
  * Created by timothy.pratama on 24-Sep-15.
  */
@@ -27,9 +26,9 @@ public class Splitable extends NodeType{
     public double totalWeight;
 
     /**
-     * The dataset that are going to be used to train this node
+     * The rows that are going to be used to train this node
      */
-    Instances dataset;
+    RowSet dataset;
 
     /**
      * Split the dataset according to this value
@@ -56,6 +55,17 @@ public class Splitable extends NodeType{
      */
     public int numberOfSplitPoints;
 
+    /**
+     * The class histogram of the split attribute on the rows, given by the parent node or computed here.
+     * NULL when the attribute is numeric and searched exactly.
+     */
+    ClassHistogram histogram;
+
+    /**
+     * Weight of each subset for an instance with a missing value, precomputed for classification
+     */
+    private double[] missingValueWeights;
+
     public Splitable(Attribute splitAttribute, double minimalInstances, double totalWeight)
     {
         this.splitAttribute = splitAttribute;
@@ -63,7 +73,7 @@ public class Splitable extends NodeType{
         this.totalWeight = totalWeight;
     }
 
-    public void buildClassifier(Instances dataset)
+    public void buildClassifier(RowSet dataset)
     {
         this.dataset = dataset;
         numOfSubsets = 0;
@@ -83,21 +93,44 @@ public class Splitable extends NodeType{
         {
             numberOfBranch = 2;
             numberOfSplitPoints = 0;
-            dataset.sort(splitAttribute);
-            processNumericAttribute();
+            if(ClassHistogram.isUsedFor(dataset, splitAttribute))
+            {
+                processBinnedAttribute(dataset.numericBins);
+            }
+            else
+            {
+                processNumericAttribute();
+            }
         }
     }
 
     private void processNominalAttribute()
     {
         classDistribution = new J48ClassDistribution(numberOfBranch, dataset.numClasses());
-        Enumeration instanceEnumeration = dataset.enumerateInstances();
-        while(instanceEnumeration.hasMoreElements())
+        if(histogram == null)
         {
-            Instance instance = (Instance) instanceEnumeration.nextElement();
-            if(!instance.isMissing(splitAttribute))
+            /* Scan the rows in order into the distribution, and keep a copy as histogram for the children */
+            histogram = new ClassHistogram(numberOfBranch, dataset.numClasses());
+            for(int i=dataset.start; i<dataset.end; i++)
             {
-                classDistribution.addInstance((int) instance.value(splitAttribute), instance);
+                if(!dataset.isMissing(i, splitAttribute))
+                {
+                    int value = (int) dataset.value(i, splitAttribute);
+                    classDistribution.addInstance(value, dataset, i);
+                    histogram.rows[value] += dataset.count(i);
+                }
+            }
+            for(int i=0; i<numberOfBranch; i++)
+            {
+                System.arraycopy(classDistribution.weightClassPerSubdataset[i], 0, histogram.weights,
+                        i * histogram.numClasses, histogram.numClasses);
+            }
+        }
+        else
+        {
+            for(int i=0; i<numberOfBranch; i++)
+            {
+                classDistribution.addClassWeights(i, histogram.weights, i * histogram.numClasses);
             }
         }
 
@@ -115,43 +148,31 @@ public class Splitable extends NodeType{
         int next = 1;
         int last = 0;
         int splitIndex = -1;
+        int first;
         double currentInfoGain;
         double currentGainRatio;
         double subsetMinInstances;
-        Instance instance;
-        int i;
+        RowSet sortedRows;
+        double [] values;
 
-        classDistribution = new J48ClassDistribution(2, dataset.numClasses());
-        Enumeration instancesEnumeration = dataset.enumerateInstances();
-        i=0;
-        while(instancesEnumeration.hasMoreElements())
+        /* Rows with a known value in ascending order, either presorted or sorted now */
+        sortedRows = dataset.sortedRows(splitAttribute);
+        first = sortedRows.start;
+        numInstances = sortedRows.numRows();
+
+        values = new double[numInstances];
+        for(int i=0; i<numInstances; i++)
         {
-            instance = (Instance) instancesEnumeration.nextElement();
-            if(!instance.isMissing(splitAttribute))
-            {
-                classDistribution.addInstance(1, instance);
-                i++;
-            }
+            values[i] = sortedRows.value(first + i, splitAttribute);
         }
 
-        numInstances = i;
+        classDistribution = new J48ClassDistribution(2, dataset.numClasses());
+        classDistribution.addRange(1, sortedRows, first, first + numInstances);
 
-        // compute the minimal instances in each subset
-        subsetMinInstances = 0.1*(classDistribution.getTotalWeight() / (double) classDistribution.numClasses());
-        if(Utils.smOrEq(subsetMinInstances, minimalInstances))
-        {
-            subsetMinInstances = minimalInstances;
-        }
-        else
-        {
-            if(Utils.gr(subsetMinInstances,25))
-            {
-                subsetMinInstances = 25;
-            }
-        }
+        subsetMinInstances = subsetMinInstances();
 
         /* Check if there are enough instances for splitting */
-        if(Utils.sm(numInstances, subsetMinInstances*2))
+        if(Utils.sm(sortedRows.numInstances(), subsetMinInstances*2))
         {
             return;
         }
@@ -159,14 +180,14 @@ public class Splitable extends NodeType{
         // find all possible split points!
         while(next < numInstances)
         {
-            if(dataset.instance(next-1).value(splitAttribute) + 0.00001 < dataset.instance(next).value(splitAttribute))
+            if(values[next-1] + 0.00001 < values[next])
             {
-                classDistribution.moveInstance(1,0,dataset,last,next);
+                classDistribution.moveInstance(1,0,sortedRows,first+last,first+next);
                 if(Utils.grOrEq(classDistribution.weightPerSubDataset[0],subsetMinInstances) &&
                    Utils.grOrEq(classDistribution.weightPerSubDataset[1],subsetMinInstances))
                 {
-                    currentInfoGain = classDistribution.calculateInfoGain(totalWeight);
-                    currentGainRatio = classDistribution.calculateGainRatio(currentInfoGain);
+                    currentInfoGain = classDistribution.calculateRunningInfoGain(totalWeight);
+                    currentGainRatio = classDistribution.calculateRunningGainRatio(currentInfoGain);
                     if(Utils.grOrEq(currentGainRatio, gainRatio))
                     {
                         infoGain = currentInfoGain;
@@ -182,27 +203,135 @@ public class Splitable extends NodeType{
 
         if(numberOfSplitPoints > 0)
         {
-            infoGain = infoGain - (log2(numberOfSplitPoints / totalWeight));
+            /* The candidates were ranked with the running entropy, the chosen one gets the exact gain */
+            J48ClassDistribution bestDistribution = new J48ClassDistribution(2, dataset.numClasses());
+            bestDistribution.addRange(0, sortedRows, first, first+splitIndex+1);
+            bestDistribution.addRange(1, sortedRows, first+splitIndex+1, first+numInstances);
+
+            infoGain = bestDistribution.calculateInfoGain(totalWeight) - (log2(numberOfSplitPoints / totalWeight));
             if(Utils.gr(infoGain,0))
             {
                 numOfSubsets = 2;
-                splitPointValue = (dataset.instance(splitIndex+1).value(splitAttribute) +
-                                   dataset.instance(splitIndex).value(splitAttribute))/2;
+                splitPointValue = (values[splitIndex+1] + values[splitIndex])/2;
 
-                if(splitPointValue == dataset.instance(splitIndex + 1).value(splitAttribute))
+                if(splitPointValue == values[splitIndex + 1])
                 {
-                    splitPointValue = dataset.instance(splitIndex).value(splitAttribute);
+                    splitPointValue = values[splitIndex];
                 }
 
-                classDistribution = new J48ClassDistribution(2, dataset.numClasses());
-                classDistribution.addRange(0, dataset, 0, splitIndex+1);
-                classDistribution.addRange(1, dataset, splitIndex+1, numInstances);
+                classDistribution = bestDistribution;
+                gainRatio = classDistribution.calculateGainRatio(infoGain);
+            }
+        }
+    }
+
+    /**
+     * Find the best split point among the bin boundaries, from the class histogram of the bins.
+     * Same criterion as processNumericAttribute, but the candidates are the bin boundaries only.
+     * @param numericBins
+     */
+    private void processBinnedAttribute(NumericBins numericBins)
+    {
+        int a = splitAttribute.index();
+        int numBins = numericBins.numBins[a];
+        int numInstances = 0;
+        int lastBin = -1;
+        int splitBin = -1;
+        double currentInfoGain;
+        double currentGainRatio;
+        double subsetMinInstances;
+
+        if(histogram == null)
+        {
+            histogram = ClassHistogram.scan(dataset, splitAttribute);
+        }
+        int [] rowsPerBin = histogram.rows;
 
+        classDistribution = new J48ClassDistribution(2, dataset.numClasses());
+        for(int bin=0; bin<numBins; bin++)
+        {
+            classDistribution.addClassWeights(1, histogram.weights, bin * histogram.numClasses);
+            numInstances = numInstances + rowsPerBin[bin];
+            if(rowsPerBin[bin] > 0)
+            {
+                lastBin = bin;
+            }
+        }
+
+        subsetMinInstances = subsetMinInstances();
+
+        /* Check if there are enough instances for splitting */
+        if(Utils.sm(numInstances, subsetMinInstances*2))
+        {
+            return;
+        }
+
+        /* A candidate after every non empty bin, except the last one */
+        for(int bin=0; bin<lastBin; bin++)
+        {
+            if(rowsPerBin[bin] == 0)
+            {
+                continue;
+            }
+            classDistribution.moveClassWeights(1, 0, histogram.weights, bin * histogram.numClasses);
+            if(Utils.grOrEq(classDistribution.weightPerSubDataset[0],subsetMinInstances) &&
+               Utils.grOrEq(classDistribution.weightPerSubDataset[1],subsetMinInstances))
+            {
+                currentInfoGain = classDistribution.calculateRunningInfoGain(totalWeight);
+                currentGainRatio = classDistribution.calculateRunningGainRatio(currentInfoGain);
+                if(Utils.grOrEq(currentGainRatio, gainRatio))
+                {
+                    infoGain = currentInfoGain;
+                    gainRatio = currentGainRatio;
+                    splitBin = bin;
+                }
+                numberOfSplitPoints++;
+            }
+        }
+
+        if(numberOfSplitPoints > 0)
+        {
+            /* The candidates were ranked with the running entropy, the chosen one gets the exact gain */
+            J48ClassDistribution bestDistribution = new J48ClassDistribution(2, dataset.numClasses());
+            for(int bin=0; bin<numBins; bin++)
+            {
+                bestDistribution.addClassWeights(bin <= splitBin ? 0 : 1, histogram.weights, bin * histogram.numClasses);
+            }
+
+            infoGain = bestDistribution.calculateInfoGain(totalWeight) - (log2(numberOfSplitPoints / totalWeight));
+            if(Utils.gr(infoGain,0))
+            {
+                numOfSubsets = 2;
+                /* Between the bins globally, setSplitPoint moves it to the largest value of this node below it */
+                splitPointValue = numericBins.splitPoints[a][splitBin];
+
+                classDistribution = bestDistribution;
                 gainRatio = classDistribution.calculateGainRatio(infoGain);
             }
         }
     }
 
+    /**
+     * Compute the minimal weight of each subset of a numeric split, from the weight of the known rows
+     * @return
+     */
+    private double subsetMinInstances()
+    {
+        double subsetMinInstances = 0.1*(classDistribution.getTotalWeight() / (double) classDistribution.numClasses());
+        if(Utils.smOrEq(subsetMinInstances, minimalInstances))
+        {
+            subsetMinInstances = minimalInstances;
+        }
+        else
+        {
+            if(Utils.gr(subsetMinInstances,25))
+            {
+                subsetMinInstances = 25;
+            }
+        }
+        return subsetMinInstances;
+    }
+
     private double log2(double a) {
         if(a != 0)
         {
@@ -217,17 +346,14 @@ public class Splitable extends NodeType{
     public void setSplitPoint() {
         double newSplitPoint = Double.MAX_VALUE * -1;
         double temp;
-        Instance instance;
 
         if(splitAttribute.isNumeric() && numOfSubsets > 1)
         {
-            Enumeration instancesEnumeration = dataset.enumerateInstances();
-            while (instancesEnumeration.hasMoreElements())
+            for(int i=dataset.start; i<dataset.end; i++)
             {
-                instance = (Instance) instancesEnumeration.nextElement();
-                if(!instance.isMissing(splitAttribute))
+                if(!dataset.isMissing(i, splitAttribute))
                 {
-                    temp = instance.value(splitAttribute);
+                    temp = dataset.value(i, splitAttribute);
                     if(Utils.gr(temp,newSplitPoint) && Utils.smOrEq(temp, splitPointValue))
                     {
                         newSplitPoint = temp;
@@ -242,14 +368,29 @@ public class Splitable extends NodeType{
         addInstanceWithMissingValue(dataset, splitAttribute);
     }
 
-    private void addInstanceWithMissingValue(Instances dataset, Attribute attribute)
+    private void addInstanceWithMissingValue(RowSet dataset, Attribute attribute)
     {
         classDistribution.addInstanceWithMissingValue(dataset, attribute);
     }
 
     @Override
     public int getSubsetIndex(Instance instance) {
-        if(instance.isMissing(splitAttribute))
+        return getSubsetIndex(instance.value(splitAttribute));
+    }
+
+    @Override
+    public int getSubsetIndex(ColumnarDataSet columns, int row) {
+        return getSubsetIndex(columns.value(row, splitAttribute.index()));
+    }
+
+    @Override
+    public int getAttributeIndex() {
+        return splitAttribute.index();
+    }
+
+    @Override
+    public int getSubsetIndex(double value) {
+        if(Instance.isMissingValue(value))
         {
             return -1;
         }
@@ -257,11 +398,11 @@ public class Splitable extends NodeType{
         {
             if(splitAttribute.isNominal())
             {
-                return (int) instance.value(splitAttribute);
+                return (int) value;
             }
             else
             {
-                if(Utils.smOrEq(instance.value(splitAttribute), splitPointValue))
+                if(Utils.smOrEq(value, splitPointValue))
                 {
                     return 0;
                 }
@@ -275,17 +416,11 @@ public class Splitable extends NodeType{
 
     @Override
     public double[] getWeights(Instance instance) {
-        double [] weights;
 //        System.out.println("\nnum subset: " + numOfSubsets);
 //        classDistribution.print();
         if(instance.isMissing(splitAttribute))
         {
-            weights = new double [numOfSubsets];
-            for(int i=0; i<numOfSubsets; i++)
-            {
-                weights[i] = classDistribution.weightPerSubDataset[i]/classDistribution.weightTotal;
-            }
-            return weights;
+            return subsetWeights();
         }
         else
         {
@@ -293,6 +428,52 @@ public class Splitable extends NodeType{
         }
     }
 
+    @Override
+    public double[] getWeights(ColumnarDataSet columns, int row) {
+        if(columns.isMissing(row, splitAttribute.index()))
+        {
+            return subsetWeights();
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Return the weight of each subset in the class distribution, the weights given to a missing value
+     * @return
+     */
+    private double[] subsetWeights()
+    {
+        double [] weights = new double [numOfSubsets];
+        for(int i=0; i<numOfSubsets; i++)
+        {
+            weights[i] = classDistribution.weightPerSubDataset[i]/classDistribution.weightTotal;
+        }
+        return weights;
+    }
+
+    @Override
+    public double[] getMissingValueWeights() {
+        if(missingValueWeights == null)
+        {
+            prepareForClassification();
+        }
+        return missingValueWeights;
+    }
+
+    @Override
+    public void prepareForClassification() {
+        missingValueWeights = subsetWeights();
+    }
+
+    @Override
+    public void finishTraining() {
+        dataset = null;
+        histogram = null;
+    }
+
     @Override
     public final String leftSide(Instances data) {
 
@@ -0,0 +1,91 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Score a batch of rows in blocks that fit in cache, optionally spreading the blocks over several threads.
+ * Subclasses score one block at a time.
+ * The blocks are forked on the pool the caller runs in, or on the common pool, so a batch never starts threads.
+ */
+public abstract class BatchScorer {
+
+    /**
+     * Number of rows scored together, small enough for a block of rows and its results to stay in cache
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    /**
+     * Minimal number of blocks per task, smaller batches are scored in the calling thread
+     */
+    public static final int MIN_BLOCKS_PER_TASK = 8;
+
+    /**
+     * Score the rows [from, to)
+     * @param from first row (inclusive)
+     * @param to last row (exclusive)
+     * @throws Exception
+     */
+    protected abstract void scoreBlock(int from, int to) throws Exception;
+
+    /**
+     * Score every row of the batch
+     * @param numRows number of rows in the batch
+     * @param numThreads maximal number of tasks, 1 scores the blocks one after another in the calling thread
+     * @throws Exception the first exception thrown while scoring a block
+     */
+    public void score(int numRows, int numThreads) throws Exception
+    {
+        int numBlocks = (numRows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int numTasks = Math.min(numThreads, numBlocks / MIN_BLOCKS_PER_TASK);
+        if(numTasks <= 1)
+        {
+            for(int from=0; from<numRows; from+=BLOCK_SIZE)
+            {
+                scoreBlock(from, Math.min(from + BLOCK_SIZE, numRows));
+            }
+            return;
+        }
+
+        /* Every task gets a contiguous range of blocks */
+        final Exception [] failure = new Exception[1];
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for(int t=0; t<numTasks; t++)
+        {
+            final int firstRow = (int) ((long) numBlocks * t / numTasks) * BLOCK_SIZE;
+            final int lastRow = Math.min((int) ((long) numBlocks * (t + 1) / numTasks) * BLOCK_SIZE, numRows);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try
+                    {
+                        for(int from=firstRow; from<lastRow; from+=BLOCK_SIZE)
+                        {
+                            scoreBlock(from, Math.min(from + BLOCK_SIZE, lastRow));
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        synchronized (failure)
+                        {
+                            if(failure[0] == null)
+                            {
+                                failure[0] = e;
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        Util.invokeAll(pool, tasks);
+        if(failure[0] != null)
+        {
+            throw failure[0];
+        }
+    }
+}
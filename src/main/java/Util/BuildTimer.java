@@ -0,0 +1,146 @@
+package Util;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the speedup achieved by building a tree in parallel.
+ * Every unit of work adds its own CPU time, measured with threadTime in the thread doing it, and the
+ * speedup is the total work divided by the wall clock time of the whole build.
+ * A sequential build doesn't measure its units of work, reading the thread CPU time costs more than a small node.
+ */
+public class BuildTimer implements Serializable {
+
+    /**
+     * Sum of the duration of every unit of work, in nanoseconds
+     */
+    private final AtomicLong workTime = new AtomicLong();
+
+    /**
+     * Whether the build runs in parallel, otherwise the work is the wall clock time
+     */
+    private final boolean parallel;
+
+    /**
+     * Start of the build, in nanoseconds
+     */
+    private long startTime;
+
+    /**
+     * Wall clock time of the whole build, in nanoseconds
+     */
+    private long wallTime;
+
+    /**
+     * @param parallel whether the build runs in parallel and the units of work are measured
+     */
+    public BuildTimer(boolean parallel)
+    {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Return the CPU time of the current thread, or the wall clock time if the JVM can't measure it
+     * @return time in nanoseconds
+     */
+    public static long threadTime()
+    {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(threadMXBean.isCurrentThreadCpuTimeSupported())
+        {
+            return threadMXBean.getCurrentThreadCpuTime();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Start measuring the build
+     */
+    public void start()
+    {
+        workTime.set(0);
+        wallTime = 0;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Stop measuring the build
+     */
+    public void stop()
+    {
+        wallTime = System.nanoTime() - startTime;
+        if(!parallel)
+        {
+            workTime.set(wallTime);
+        }
+    }
+
+    /**
+     * Start a unit of work in the current thread
+     * @return start time to give to endWork, 0 if the build is sequential
+     */
+    public long startWork()
+    {
+        return parallel ? threadTime() : 0;
+    }
+
+    /**
+     * End a unit of work started with startWork in the same thread
+     * @param startTime
+     */
+    public void endWork(long startTime)
+    {
+        if(parallel)
+        {
+            addWork(threadTime() - startTime);
+        }
+    }
+
+    /**
+     * Add the duration of a unit of work
+     * @param nanoTime duration in nanoseconds
+     */
+    public void addWork(long nanoTime)
+    {
+        workTime.addAndGet(nanoTime);
+    }
+
+    /**
+     * Return the total duration of all units of work, in milliseconds
+     * @return
+     */
+    public double getWorkTime()
+    {
+        return workTime.get() / 1e6;
+    }
+
+    /**
+     * Return the wall clock time of the build, in milliseconds
+     * @return
+     */
+    public double getWallTime()
+    {
+        return wallTime / 1e6;
+    }
+
+    /**
+     * Return the achieved speedup, 1 for a sequential build
+     * @return
+     */
+    public double getSpeedup()
+    {
+        if(wallTime == 0)
+        {
+            return 1;
+        }
+        return (double) workTime.get() / (double) wallTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("work %.1f ms, wall %.1f ms, speedup %.2fx", getWorkTime(), getWallTime(), getSpeedup());
+    }
+}
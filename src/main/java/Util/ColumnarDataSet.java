@@ -0,0 +1,549 @@
+package Util;
+
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.WekaException;
+import weka.core.converters.ArffLoader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A training data set stored column by column in primitive arrays, instead of one Instance object per row.
+ * Nominal columns hold the value index in a byte (up to 127 values) or a short, -1 being a missing value.
+ * Numeric columns are floats while every value is exactly a float, doubles otherwise, so the learners see the
+ * same values as in the Instances. The weights are only stored if some weight is not 1.
+ * A row of 10 nominal attributes takes about 11 bytes, instead of more than 100 as an Instance.
+ * MappedColumnarDataSet keeps the columns in memory-mapped files instead, for data sets larger than the heap.
+ */
+public class ColumnarDataSet {
+
+    /**
+     * Number of rows the columns grow by at least when reading a file
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The attributes of the data set, without instances
+     */
+    private final Instances header;
+
+    private int numRows;
+
+    /**
+     * Exactly one of the four columns of an attribute is not NULL
+     */
+    private final byte[][] byteColumns;
+    private final short[][] shortColumns;
+    private final float[][] floatColumns;
+    private final double[][] doubleColumns;
+
+    /**
+     * Weight of each row, NULL while every weight is 1
+     */
+    private double[] weights;
+
+    /**
+     * Convert a data set into columns
+     * @param dataSet
+     */
+    public ColumnarDataSet(Instances dataSet)
+    {
+        this(dataSet, 0);
+        allocateColumns(dataSet.numInstances());
+        for(int i=0; i<dataSet.numInstances(); i++)
+        {
+            add(dataSet.instance(i));
+        }
+    }
+
+    /**
+     * Create a data set whose columns are not allocated yet, or are stored by a subclass overriding every accessor
+     * @param header attributes and class index of the data set
+     * @param numRows
+     */
+    protected ColumnarDataSet(Instances header, int numRows)
+    {
+        this.header = new Instances(header, 0);
+        this.numRows = numRows;
+        int numAttributes = header.numAttributes();
+        byteColumns = new byte[numAttributes][];
+        shortColumns = new short[numAttributes][];
+        floatColumns = new float[numAttributes][];
+        doubleColumns = new double[numAttributes][];
+    }
+
+    /**
+     * Allocate the empty columns of a data set without rows
+     * @param capacity number of rows to allocate
+     */
+    private void allocateColumns(int capacity)
+    {
+        for(int a=0; a<header.numAttributes(); a++)
+        {
+            Attribute attribute = header.attribute(a);
+            if(attribute.isNominal() && attribute.numValues() <= Byte.MAX_VALUE)
+            {
+                byteColumns[a] = new byte[capacity];
+            }
+            else if(attribute.isNominal() && attribute.numValues() <= Short.MAX_VALUE)
+            {
+                shortColumns[a] = new short[capacity];
+            }
+            else if(attribute.isNumeric())
+            {
+                floatColumns[a] = new float[capacity];
+            }
+            else
+            {
+                doubleColumns[a] = new double[capacity];
+            }
+        }
+    }
+
+    /**
+     * Read an ARFF file straight into columns, one instance at a time, so the data set is never held as Instances.
+     * The class attribute is the last attribute.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ColumnarDataSet readArff(File file) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16);
+        try
+        {
+            ArffLoader.ArffReader arffReader = new ArffLoader.ArffReader(reader, INITIAL_CAPACITY);
+            Instances structure = arffReader.getStructure();
+            structure.setClassIndex(structure.numAttributes() - 1);
+
+            ColumnarDataSet columns = new ColumnarDataSet(structure, 0);
+            columns.allocateColumns(INITIAL_CAPACITY);
+            Instance instance;
+            while((instance = arffReader.readInstance(structure)) != null)
+            {
+                columns.add(instance);
+            }
+            columns.trim();
+            return columns;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Create a data set from some rows of this data set
+     * @param rows index of each row to keep
+     * @param rowWeights new weight of each kept row
+     * @return
+     */
+    public ColumnarDataSet subset(int[] rows, double[] rowWeights)
+    {
+        ColumnarDataSet subset = new ColumnarDataSet(header, 0);
+        subset.allocateColumns(rows.length);
+        double [] values = new double[numAttributes()];
+        for(int i=0; i<rows.length; i++)
+        {
+            for(int a=0; a<values.length; a++)
+            {
+                values[a] = value(rows[i], a);
+            }
+            subset.add(values, rowWeights[i]);
+        }
+        return subset;
+    }
+
+    /**
+     * Append an instance, growing the columns if they are full
+     * @param instance
+     */
+    private void add(Instance instance)
+    {
+        add(instance.toDoubleArray(), instance.weight());
+    }
+
+    /**
+     * Append a row, growing the columns if they are full
+     * @param values value of each attribute, like Instance.value
+     * @param weight
+     */
+    private void add(double[] values, double weight)
+    {
+        if(numRows == capacity())
+        {
+            grow(Math.max(INITIAL_CAPACITY, capacity() * 2));
+        }
+        for(int a=0; a<numAttributes(); a++)
+        {
+            double value = values[a];
+            if(byteColumns[a] != null)
+            {
+                byteColumns[a][numRows] = (byte) (Instance.isMissingValue(value) ? -1 : value);
+            }
+            else if(shortColumns[a] != null)
+            {
+                shortColumns[a][numRows] = (short) (Instance.isMissingValue(value) ? -1 : value);
+            }
+            else
+            {
+                if(floatColumns[a] != null && (double) (float) value != value && !Instance.isMissingValue(value))
+                {
+                    /* The value needs a double, so does the whole column from now on */
+                    doubleColumns[a] = new double[floatColumns[a].length];
+                    for(int i=0; i<numRows; i++)
+                    {
+                        doubleColumns[a][i] = floatColumns[a][i];
+                    }
+                    floatColumns[a] = null;
+                }
+                if(floatColumns[a] != null)
+                {
+                    floatColumns[a][numRows] = (float) value;
+                }
+                else
+                {
+                    doubleColumns[a][numRows] = value;
+                }
+            }
+        }
+        numRows++;
+        setWeight(numRows - 1, weight);
+    }
+
+    /**
+     * Set the weight of a row, storing the weights only once a weight is not 1
+     * @param row
+     * @param weight
+     */
+    private void setWeight(int row, double weight)
+    {
+        if(weights == null && weight != 1)
+        {
+            weights = new double[capacity()];
+            Arrays.fill(weights, 0, numRows, 1);
+        }
+        if(weights != null)
+        {
+            weights[row] = weight;
+        }
+    }
+
+    /**
+     * Return the number of rows the columns can hold
+     * @return
+     */
+    private int capacity()
+    {
+        for(int a=0; a<numAttributes(); a++)
+        {
+            if(byteColumns[a] != null)
+            {
+                return byteColumns[a].length;
+            }
+            else if(shortColumns[a] != null)
+            {
+                return shortColumns[a].length;
+            }
+            else if(floatColumns[a] != null)
+            {
+                return floatColumns[a].length;
+            }
+            else
+            {
+                return doubleColumns[a].length;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Resize every column to a number of rows
+     * @param capacity
+     */
+    private void grow(int capacity)
+    {
+        for(int a=0; a<numAttributes(); a++)
+        {
+            if(byteColumns[a] != null)
+            {
+                byteColumns[a] = Arrays.copyOf(byteColumns[a], capacity);
+            }
+            else if(shortColumns[a] != null)
+            {
+                shortColumns[a] = Arrays.copyOf(shortColumns[a], capacity);
+            }
+            else if(floatColumns[a] != null)
+            {
+                floatColumns[a] = Arrays.copyOf(floatColumns[a], capacity);
+            }
+            else
+            {
+                doubleColumns[a] = Arrays.copyOf(doubleColumns[a], capacity);
+            }
+        }
+        if(weights != null)
+        {
+            weights = Arrays.copyOf(weights, capacity);
+        }
+    }
+
+    /**
+     * Release the space the columns have beyond the last row
+     */
+    private void trim()
+    {
+        if(capacity() != numRows)
+        {
+            grow(numRows);
+        }
+    }
+
+    /**
+     * Return the attributes of the data set, without instances
+     * @return
+     */
+    public Instances getHeader()
+    {
+        return header;
+    }
+
+    public int numRows()
+    {
+        return numRows;
+    }
+
+    public int numAttributes()
+    {
+        return header.numAttributes();
+    }
+
+    public int classIndex()
+    {
+        return header.classIndex();
+    }
+
+    public int numClasses()
+    {
+        return header.numClasses();
+    }
+
+    /**
+     * Return the value of an attribute of a row like Instance.value, the value index for a nominal attribute
+     * @param row
+     * @param attribute attribute index
+     * @return the value, Instance.missingValue() if it is missing
+     */
+    public double value(int row, int attribute)
+    {
+        if(byteColumns[attribute] != null || shortColumns[attribute] != null)
+        {
+            int value = nominalValue(row, attribute);
+            return value < 0 ? Instance.missingValue() : value;
+        }
+        else if(floatColumns[attribute] != null)
+        {
+            return floatColumns[attribute][row];
+        }
+        else
+        {
+            return doubleColumns[attribute][row];
+        }
+    }
+
+    /**
+     * Return the value index of a nominal attribute of a row
+     * @param row
+     * @param attribute attribute index
+     * @return the value index, -1 if it is missing
+     */
+    public int nominalValue(int row, int attribute)
+    {
+        if(byteColumns[attribute] != null)
+        {
+            return byteColumns[attribute][row];
+        }
+        else if(shortColumns[attribute] != null)
+        {
+            return shortColumns[attribute][row];
+        }
+        else
+        {
+            double value = value(row, attribute);
+            return Instance.isMissingValue(value) ? -1 : (int) value;
+        }
+    }
+
+    public boolean isMissing(int row, int attribute)
+    {
+        if(byteColumns[attribute] != null)
+        {
+            return byteColumns[attribute][row] < 0;
+        }
+        else if(shortColumns[attribute] != null)
+        {
+            return shortColumns[attribute][row] < 0;
+        }
+        else
+        {
+            return Instance.isMissingValue(value(row, attribute));
+        }
+    }
+
+    /**
+     * Return the class index of a row
+     * @param row
+     * @return the class index, -1 if the class is missing
+     */
+    public int classValue(int row)
+    {
+        return nominalValue(row, header.classIndex());
+    }
+
+    public boolean classIsMissing(int row)
+    {
+        return isMissing(row, header.classIndex());
+    }
+
+    public double weight(int row)
+    {
+        return weights == null ? 1 : weights[row];
+    }
+
+    /**
+     * Check whether every row has a weight of 1
+     * @return
+     */
+    public boolean hasUnitWeights()
+    {
+        return weights == null;
+    }
+
+    /**
+     * Check whether some row misses the value of an attribute other than the class
+     * @return
+     */
+    public boolean hasMissingValues()
+    {
+        for(int a=0; a<numAttributes(); a++)
+        {
+            if(a == header.classIndex())
+            {
+                continue;
+            }
+            for(int i=0; i<numRows; i++)
+            {
+                if(isMissing(i, a))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check the data set against the capabilities of a classifier, like Capabilities.testWithFail for instances
+     * @param capabilities
+     * @throws Exception if the classifier can't handle the data set
+     */
+    public void testWithFail(Capabilities capabilities) throws Exception
+    {
+        /* The header has no instances, their number and their missing values are checked here */
+        int minimumNumberInstances = capabilities.getMinimumNumberInstances();
+        capabilities.setMinimumNumberInstances(0);
+        try
+        {
+            capabilities.testWithFail(header);
+        }
+        finally
+        {
+            capabilities.setMinimumNumberInstances(minimumNumberInstances);
+        }
+
+        String owner = capabilities.getOwner() == null ? "" : capabilities.getOwner().getClass().getName() + ": ";
+        if(!capabilities.handles(Capabilities.Capability.MISSING_VALUES) && hasMissingValues())
+        {
+            throw new WekaException(owner + "Cannot handle missing values!");
+        }
+        if(numRows < minimumNumberInstances)
+        {
+            throw new WekaException(owner + "Not enough training instances (required: " + minimumNumberInstances
+                    + ", provided: " + numRows + ")!");
+        }
+    }
+
+    /**
+     * Return a row as an instance of the header
+     * @param row
+     * @return
+     */
+    public Instance instance(int row)
+    {
+        double [] values = new double[numAttributes()];
+        for(int a=0; a<values.length; a++)
+        {
+            values[a] = value(row, a);
+        }
+        Instance instance = new Instance(weight(row), values);
+        instance.setDataset(header);
+        return instance;
+    }
+
+    /**
+     * Check whether the columns are held in memory, rather than read from files on demand
+     * @return
+     */
+    public boolean isInMemory()
+    {
+        return true;
+    }
+
+    /**
+     * Return the number of bytes read from the columns' files so far, 0 for columns held in memory
+     * @return
+     */
+    public long bytesRead()
+    {
+        return 0;
+    }
+
+    /**
+     * Return the number of bytes taken by the columns and the weights
+     * @return
+     */
+    public long sizeInBytes()
+    {
+        long size = 0;
+        for(int a=0; a<numAttributes(); a++)
+        {
+            if(byteColumns[a] != null)
+            {
+                size += byteColumns[a].length;
+            }
+            else if(shortColumns[a] != null)
+            {
+                size += 2L * shortColumns[a].length;
+            }
+            else if(floatColumns[a] != null)
+            {
+                size += 4L * floatColumns[a].length;
+            }
+            else
+            {
+                size += 8L * doubleColumns[a].length;
+            }
+        }
+        if(weights != null)
+        {
+            size += 8L * weights.length;
+        }
+        return size;
+    }
+}
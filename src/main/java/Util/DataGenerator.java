@@ -0,0 +1,531 @@
+package Util;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generate synthetic data sets of any size for scaling tests of the tree learners.
+ * The class of every row is given by a random tree planted over the attributes (the concept), then some
+ * labels are replaced by noise and some attribute values are removed.
+ * Rows are generated one by one, so the files can be written without holding the data set in memory.
+ * The same seed and settings always give the same rows.
+ */
+public class DataGenerator {
+
+    /**
+     * Number of rows to generate
+     */
+    private long numRows = 1000;
+
+    /**
+     * Number of nominal attributes, they come first
+     */
+    private int numNominalAttributes = 5;
+
+    /**
+     * Number of numeric attributes, uniform in [0, 1)
+     */
+    private int numNumericAttributes = 5;
+
+    /**
+     * Minimal number of values of a nominal attribute
+     */
+    private int minCardinality = 2;
+
+    /**
+     * Maximal number of values of a nominal attribute
+     */
+    private int maxCardinality = 5;
+
+    /**
+     * Number of class values
+     */
+    private int numClasses = 2;
+
+    /**
+     * Ratio between the prior of the first class and the prior of the last class, 1 for balanced classes.
+     * The priors in between decrease geometrically.
+     */
+    private double classImbalance = 1;
+
+    /**
+     * Probability of each attribute value to be missing
+     */
+    private double missingRate = 0;
+
+    /**
+     * Probability of the class of a row to be replaced by a class drawn from the priors
+     */
+    private double labelNoise = 0;
+
+    /**
+     * Depth of the planted tree
+     */
+    private int conceptDepth = 4;
+
+    /**
+     * Seed of the attribute cardinalities, the concept and the rows
+     */
+    private long seed = 1;
+
+    /**
+     * Number of values of every nominal attribute, drawn once from the seed
+     */
+    private int[] cardinalities;
+
+    /**
+     * Prior of every class
+     */
+    private double[] classPriors;
+
+    /**
+     * Root of the planted tree
+     */
+    private ConceptNode concept;
+
+    /**
+     * A node of the planted tree.
+     * An internal node tests a nominal attribute (one child per value) or a numeric attribute against a threshold
+     * (left child below it, right child otherwise). A leaf holds a class.
+     */
+    private static class ConceptNode {
+        int attribute = -1;
+        double threshold;
+        ConceptNode[] childs;
+        int classValue;
+    }
+
+    /**
+     * Return the header of the generated data set, the class is the last attribute
+     * @return
+     */
+    public Instances getHeader()
+    {
+        initialize();
+
+        FastVector attributes = new FastVector(numAttributes() + 1);
+        for(int a=0; a<numNominalAttributes; a++)
+        {
+            FastVector values = new FastVector(cardinalities[a]);
+            for(int v=0; v<cardinalities[a]; v++)
+            {
+                values.addElement("v" + v);
+            }
+            attributes.addElement(new Attribute("nominal" + a, values));
+        }
+        for(int a=0; a<numNumericAttributes; a++)
+        {
+            attributes.addElement(new Attribute("numeric" + a));
+        }
+        FastVector classValues = new FastVector(numClasses);
+        for(int c=0; c<numClasses; c++)
+        {
+            classValues.addElement("c" + c);
+        }
+        attributes.addElement(new Attribute("class", classValues));
+
+        Instances header = new Instances("synthetic", attributes, 0);
+        header.setClassIndex(numAttributes());
+        return header;
+    }
+
+    /**
+     * Generate the data set in memory
+     * @return
+     */
+    public Instances generate()
+    {
+        Instances dataSet = getHeader();
+        if(numRows > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Too many rows for an in-memory data set, write them to a file instead");
+        }
+        Random random = new Random(seed);
+        for(long i=0; i<numRows; i++)
+        {
+            double [] values = new double[numAttributes() + 1];
+            generateRow(random, values);
+            dataSet.add(new Instance(1, values));
+        }
+        return dataSet;
+    }
+
+    /**
+     * Write the data set to an ARFF file, row by row
+     * @param file
+     * @throws IOException
+     */
+    public void writeARFF(File file) throws IOException
+    {
+        Instances header = getHeader();
+        Writer writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+        try
+        {
+            /* The header of an empty data set ends with its @data line */
+            writer.write(header.toString());
+            writeRows(writer, header);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the data set to a CSV file with a header line, row by row. Missing values are written as "?".
+     * @param file
+     * @throws IOException
+     */
+    public void writeCSV(File file) throws IOException
+    {
+        Instances header = getHeader();
+        Writer writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+        try
+        {
+            for(int a=0; a<header.numAttributes(); a++)
+            {
+                if(a > 0)
+                {
+                    writer.write(',');
+                }
+                writer.write(header.attribute(a).name());
+            }
+            writer.write('\n');
+            writeRows(writer, header);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Generate every row and write it as comma separated values
+     * @param writer
+     * @param header
+     * @throws IOException
+     */
+    private void writeRows(Writer writer, Instances header) throws IOException
+    {
+        Random random = new Random(seed);
+        double [] values = new double[header.numAttributes()];
+        StringBuilder line = new StringBuilder();
+        for(long i=0; i<numRows; i++)
+        {
+            generateRow(random, values);
+            line.setLength(0);
+            for(int a=0; a<values.length; a++)
+            {
+                if(a > 0)
+                {
+                    line.append(',');
+                }
+                Attribute attribute = header.attribute(a);
+                if(Instance.isMissingValue(values[a]))
+                {
+                    line.append('?');
+                }
+                else if(attribute.isNominal())
+                {
+                    line.append(attribute.value((int) values[a]));
+                }
+                else
+                {
+                    line.append(Utils.doubleToString(values[a], 6));
+                }
+            }
+            line.append('\n');
+            writer.append(line);
+        }
+    }
+
+    /**
+     * Generate the values of the next row, the class last
+     * @param random
+     * @param values array of numAttributes + 1 values, overwritten
+     */
+    private void generateRow(Random random, double[] values)
+    {
+        for(int a=0; a<numNominalAttributes; a++)
+        {
+            values[a] = random.nextInt(cardinalities[a]);
+        }
+        for(int a=numNominalAttributes; a<numAttributes(); a++)
+        {
+            values[a] = random.nextDouble();
+        }
+
+        /* The class is decided before any value is removed */
+        ConceptNode node = concept;
+        while(node.childs != null)
+        {
+            if(node.attribute < numNominalAttributes)
+            {
+                node = node.childs[(int) values[node.attribute]];
+            }
+            else
+            {
+                node = node.childs[values[node.attribute] < node.threshold ? 0 : 1];
+            }
+        }
+        values[numAttributes()] = node.classValue;
+        if(labelNoise > 0 && random.nextDouble() < labelNoise)
+        {
+            values[numAttributes()] = drawClass(random);
+        }
+
+        if(missingRate > 0)
+        {
+            for(int a=0; a<numAttributes(); a++)
+            {
+                if(random.nextDouble() < missingRate)
+                {
+                    values[a] = Instance.missingValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw the attribute cardinalities, the class priors and the planted tree from the seed
+     */
+    private void initialize()
+    {
+        if(numClasses < 2)
+        {
+            throw new IllegalArgumentException("At least 2 classes are needed");
+        }
+        if(minCardinality < 2 || maxCardinality < minCardinality)
+        {
+            throw new IllegalArgumentException("Invalid cardinalities " + minCardinality + ".." + maxCardinality);
+        }
+
+        /* A different stream from the rows, so changing numRows doesn't change the concept */
+        Random random = new Random(seed * 31 + 17);
+        cardinalities = new int[numNominalAttributes];
+        for(int a=0; a<numNominalAttributes; a++)
+        {
+            cardinalities[a] = minCardinality + random.nextInt(maxCardinality - minCardinality + 1);
+        }
+
+        classPriors = new double[numClasses];
+        for(int c=0; c<numClasses; c++)
+        {
+            classPriors[c] = Math.pow(classImbalance, -(double) c / (numClasses - 1));
+        }
+        Utils.normalize(classPriors);
+
+        concept = createConcept(random, conceptDepth, new boolean[numAttributes()]);
+    }
+
+    /**
+     * Create a random subtree of the planted tree, every nominal attribute is tested at most once per path
+     * @param random
+     * @param depth remaining depth
+     * @param usedAttributes nominal attributes already tested on the path
+     * @return
+     */
+    private ConceptNode createConcept(Random random, int depth, boolean[] usedAttributes)
+    {
+        ConceptNode node = new ConceptNode();
+        int attribute = -1;
+        if(depth > 0 && numAttributes() > 0)
+        {
+            /* A few tries to find an attribute usable on this path, otherwise it's a leaf */
+            for(int i=0; i<numAttributes() && attribute == -1; i++)
+            {
+                int candidate = random.nextInt(numAttributes());
+                if(!usedAttributes[candidate])
+                {
+                    attribute = candidate;
+                }
+            }
+        }
+
+        if(attribute == -1)
+        {
+            node.classValue = drawClass(random);
+        }
+        else
+        {
+            node.attribute = attribute;
+            if(attribute < numNominalAttributes)
+            {
+                usedAttributes[attribute] = true;
+                node.childs = new ConceptNode[cardinalities[attribute]];
+            }
+            else
+            {
+                node.threshold = 0.2 + 0.6 * random.nextDouble();
+                node.childs = new ConceptNode[2];
+            }
+            for(int i=0; i<node.childs.length; i++)
+            {
+                node.childs[i] = createConcept(random, depth - 1, usedAttributes);
+            }
+            usedAttributes[attribute] = false;
+        }
+        return node;
+    }
+
+    /**
+     * Draw a class from the class priors
+     * @param random
+     * @return
+     */
+    private int drawClass(Random random)
+    {
+        double r = random.nextDouble();
+        for(int c=0; c<numClasses - 1; c++)
+        {
+            r = r - classPriors[c];
+            if(r < 0)
+            {
+                return c;
+            }
+        }
+        return numClasses - 1;
+    }
+
+    /**
+     * Return the number of attributes, not counting the class
+     * @return
+     */
+    private int numAttributes()
+    {
+        return numNominalAttributes + numNumericAttributes;
+    }
+
+    public long getNumRows() {
+        return numRows;
+    }
+
+    public void setNumRows(long numRows) {
+        this.numRows = numRows;
+    }
+
+    public int getNumNominalAttributes() {
+        return numNominalAttributes;
+    }
+
+    public void setNumNominalAttributes(int numNominalAttributes) {
+        this.numNominalAttributes = numNominalAttributes;
+    }
+
+    public int getNumNumericAttributes() {
+        return numNumericAttributes;
+    }
+
+    public void setNumNumericAttributes(int numNumericAttributes) {
+        this.numNumericAttributes = numNumericAttributes;
+    }
+
+    public int getMinCardinality() {
+        return minCardinality;
+    }
+
+    public void setMinCardinality(int minCardinality) {
+        this.minCardinality = minCardinality;
+    }
+
+    public int getMaxCardinality() {
+        return maxCardinality;
+    }
+
+    public void setMaxCardinality(int maxCardinality) {
+        this.maxCardinality = maxCardinality;
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    public void setNumClasses(int numClasses) {
+        this.numClasses = numClasses;
+    }
+
+    public double getClassImbalance() {
+        return classImbalance;
+    }
+
+    public void setClassImbalance(double classImbalance) {
+        this.classImbalance = classImbalance;
+    }
+
+    public double getMissingRate() {
+        return missingRate;
+    }
+
+    public void setMissingRate(double missingRate) {
+        this.missingRate = missingRate;
+    }
+
+    public double getLabelNoise() {
+        return labelNoise;
+    }
+
+    public void setLabelNoise(double labelNoise) {
+        this.labelNoise = labelNoise;
+    }
+
+    public int getConceptDepth() {
+        return conceptDepth;
+    }
+
+    public void setConceptDepth(int conceptDepth) {
+        this.conceptDepth = conceptDepth;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Write a synthetic data set to a file, e.g.
+     * DataGenerator 100000000 big.csv [nominal numeric classes missingRate]
+     * @param args number of rows, output file (.arff or .csv), then optionally the attribute counts,
+     *             the number of classes and the missing rate
+     * @throws IOException
+     */
+    public static void main(String [] args) throws IOException {
+        DataGenerator generator = new DataGenerator();
+        generator.setNumRows(Long.parseLong(args[0]));
+        File file = new File(args[1]);
+        if(args.length > 2)
+        {
+            generator.setNumNominalAttributes(Integer.parseInt(args[2]));
+            generator.setNumNumericAttributes(Integer.parseInt(args[3]));
+        }
+        if(args.length > 4)
+        {
+            generator.setNumClasses(Integer.parseInt(args[4]));
+        }
+        if(args.length > 5)
+        {
+            generator.setMissingRate(Double.parseDouble(args[5]));
+        }
+
+        if(file.getName().endsWith(".csv"))
+        {
+            generator.writeCSV(file);
+        }
+        else
+        {
+            generator.writeARFF(file);
+        }
+    }
+}
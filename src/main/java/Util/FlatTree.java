@@ -0,0 +1,172 @@
+package Util;
+
+import weka.core.Instances;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A trained tree flattened into arrays, nodes numbered breadth first so the children of a node are numbered
+ * consecutively. Created by MyId3.flatten() and MyJ48.flatten(), written in the binary format read by MappedTreeModel.
+ */
+public class FlatTree {
+
+    public static final int LEAF = 0;
+    public static final int NOMINAL_SPLIT = 1;
+    public static final int NUMERIC_SPLIT = 2;
+
+    /**
+     * Header of the training data set
+     */
+    public Instances header;
+
+    /**
+     * Whether a missing value goes down every branch with its missing weight (MyJ48),
+     * otherwise it can't be classified (MyId3)
+     */
+    public boolean missingValuesAsWeights;
+
+    /**
+     * LEAF, NOMINAL_SPLIT or NUMERIC_SPLIT for each node
+     */
+    public int[] kind;
+
+    /**
+     * Attribute index used for splitting at each node, -1 if the node is a leaf
+     */
+    public int[] attributeIndex;
+
+    /**
+     * Split point of a numeric split, a value goes to the first child if it is smaller or equal
+     */
+    public double[] splitPoint;
+
+    /**
+     * For an internal node the index of its first child, for a leaf the index of its leaf
+     */
+    public int[] firstChild;
+
+    /**
+     * Number of children of each node
+     */
+    public int[] numChilds;
+
+    /**
+     * Weight of each node when the split value of its parent is missing
+     */
+    public double[] missingWeight;
+
+    /**
+     * Class value of each leaf, NaN if the class is the most probable one of the distribution
+     */
+    public double[] leafClass;
+
+    /**
+     * Class distribution of each leaf, numClasses values per leaf
+     */
+    public double[] leafDistribution;
+
+    /**
+     * Create an empty flat tree
+     * @param header header of the training data set
+     * @param numNodes
+     * @param numLeaves
+     * @param missingValuesAsWeights
+     */
+    public FlatTree(Instances header, int numNodes, int numLeaves, boolean missingValuesAsWeights)
+    {
+        this.header = new Instances(header, 0);
+        this.missingValuesAsWeights = missingValuesAsWeights;
+        kind = new int[numNodes];
+        attributeIndex = new int[numNodes];
+        splitPoint = new double[numNodes];
+        firstChild = new int[numNodes];
+        numChilds = new int[numNodes];
+        missingWeight = new double[numNodes];
+        leafClass = new double[numLeaves];
+        leafDistribution = new double[numLeaves * header.numClasses()];
+    }
+
+    /**
+     * Return the number of nodes
+     * @return
+     */
+    public int numNodes()
+    {
+        return kind.length;
+    }
+
+    /**
+     * Return the number of leaves
+     * @return
+     */
+    public int numLeaves()
+    {
+        return leafClass.length;
+    }
+
+    /**
+     * Return the number of class values
+     * @return
+     */
+    public int numClasses()
+    {
+        return header.numClasses();
+    }
+
+    /**
+     * Write the tree in the binary model format, see MappedTreeModel for the layout
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException
+    {
+        byte [] headerBytes = header.toString().getBytes(StandardCharsets.UTF_8);
+        int nodesOffset = MappedTreeModel.align(MappedTreeModel.HEADER_SIZE + headerBytes.length);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try
+        {
+            out.writeInt(MappedTreeModel.MAGIC);
+            out.writeInt(MappedTreeModel.VERSION);
+            out.writeInt(missingValuesAsWeights ? MappedTreeModel.MISSING_VALUES_AS_WEIGHTS : 0);
+            out.writeInt(numClasses());
+            out.writeInt(numNodes());
+            out.writeInt(numLeaves());
+            out.writeInt(header.classIndex());
+            out.writeInt(headerBytes.length);
+            out.write(headerBytes);
+            for(int i=MappedTreeModel.HEADER_SIZE + headerBytes.length; i<nodesOffset; i++)
+            {
+                out.writeByte(0);
+            }
+
+            for(int node=0; node<numNodes(); node++)
+            {
+                out.writeDouble(splitPoint[node]);
+                out.writeDouble(missingWeight[node]);
+                out.writeInt(attributeIndex[node]);
+                out.writeInt(firstChild[node]);
+                out.writeInt(numChilds[node]);
+                out.writeInt(kind[node]);
+            }
+
+            for(int leaf=0; leaf<numLeaves(); leaf++)
+            {
+                out.writeDouble(leafClass[leaf]);
+                for(int j=0; j<numClasses(); j++)
+                {
+                    out.writeDouble(leafDistribution[leaf * numClasses() + j]);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
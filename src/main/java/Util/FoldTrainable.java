@@ -0,0 +1,21 @@
+package Util;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ * A classifier able to train the classifiers of every cross-validation fold together, sharing the work the
+ * folds have in common instead of training each fold from scratch. Used by ParallelCrossValidation.
+ */
+public interface FoldTrainable {
+
+    /**
+     * Train one classifier per fold, the classifier of fold i being trained on the instances outside
+     * data.testCV(numFolds, i). The result must be the same as training a copy of this classifier on data.trainCV(numFolds, i).
+     * @param data data set already randomized (and stratified)
+     * @param numFolds
+     * @return the trained classifier of each fold, NULL if the folds can't share their work for this data set
+     * @throws Exception
+     */
+    Classifier[] buildFoldClassifiers(Instances data, int numFolds) throws Exception;
+}
@@ -0,0 +1,121 @@
+package Util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Count the bytes a tree build reads from the columns of a MappedColumnarDataSet, per level of the tree.
+ * Every node adds the bytes read while it was growing, the preparation before the root and the pruning after
+ * the tree is grown are counted apart. In a parallel build the nodes share the data set's counter, so the bytes
+ * of a level may include some read by nodes of other levels at the same time; the total is exact.
+ */
+public class IoStatistics implements Serializable {
+
+    /**
+     * Bytes read by the nodes of each level, the root being level 0
+     */
+    private long[] levelBytes = new long[0];
+
+    /**
+     * Bytes read before growing the root, to list the rows
+     */
+    private long preparationBytes;
+
+    /**
+     * Bytes read by the whole build
+     */
+    private long totalBytes;
+
+    /**
+     * Add the bytes read by a node
+     * @param level depth of the node, 0 for the root
+     * @param bytes
+     */
+    public synchronized void addLevelBytes(int level, long bytes)
+    {
+        if(level >= levelBytes.length)
+        {
+            levelBytes = Arrays.copyOf(levelBytes, level + 1);
+        }
+        levelBytes[level] += bytes;
+    }
+
+    /**
+     * @param preparationBytes
+     */
+    public synchronized void setPreparationBytes(long preparationBytes)
+    {
+        this.preparationBytes = preparationBytes;
+    }
+
+    /**
+     * @param totalBytes
+     */
+    public synchronized void setTotalBytes(long totalBytes)
+    {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Return the number of levels of the tree that read some bytes
+     * @return
+     */
+    public synchronized int getNumLevels()
+    {
+        return levelBytes.length;
+    }
+
+    /**
+     * Return the bytes read by the nodes of a level
+     * @param level
+     * @return
+     */
+    public synchronized long getLevelBytes(int level)
+    {
+        return level < levelBytes.length ? levelBytes[level] : 0;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getPreparationBytes()
+    {
+        return preparationBytes;
+    }
+
+    /**
+     * Return the bytes read after the tree was grown, while collapsing and pruning it
+     * @return
+     */
+    public synchronized long getPruningBytes()
+    {
+        long bytes = totalBytes - preparationBytes;
+        for(int i=0; i<levelBytes.length; i++)
+        {
+            bytes -= levelBytes[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("preparation: %.1f MB%n", preparationBytes / 1e6));
+        for(int i=0; i<levelBytes.length; i++)
+        {
+            result.append(String.format("level %d: %.1f MB%n", i, levelBytes[i] / 1e6));
+        }
+        result.append(String.format("pruning: %.1f MB%n", getPruningBytes() / 1e6));
+        result.append(String.format("total: %.1f MB", totalBytes / 1e6));
+        return result.toString();
+    }
+}
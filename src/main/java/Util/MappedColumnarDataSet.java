@@ -0,0 +1,381 @@
+package Util;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A columnar data set whose columns are files on local disk, memory-mapped instead of loaded into the heap,
+ * so a learner can train on a data set larger than the heap. Only the pages the learner reads are brought in
+ * by the operating system, and they can be dropped again when memory runs short.
+ *
+ * A data set is a directory holding the header as an ARFF file without data, one file per attribute and a weight
+ * file if some weight is not 1. A nominal column holds a byte (up to 127 values) or a short value index, -1 being
+ * a missing value, any other column holds doubles. Every value read is counted, see bytesRead.
+ * MyJ48 only trains from nominal columns, its numeric split search would copy numeric columns into the heap.
+ */
+public class MappedColumnarDataSet extends ColumnarDataSet {
+
+    private static final String HEADER_FILE = "header.arff";
+    private static final String WEIGHTS_FILE = "weights.bin";
+
+    /**
+     * A column is mapped in segments of 2^SEGMENT_SHIFT rows, a single mapping can't exceed 2 GB
+     */
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    /**
+     * Mapped segments of each attribute's column
+     */
+    private final ByteBuffer[][] columnSegments;
+
+    /**
+     * Number of bytes of a value of each attribute's column: 1, 2 or 8
+     */
+    private final int[] valueSizes;
+
+    /**
+     * Mapped segments of the weight column, NULL if every weight is 1
+     */
+    private final ByteBuffer[] weightSegments;
+
+    /**
+     * Number of bytes read from the columns, by every thread
+     */
+    private final LongAdder bytesRead = new LongAdder();
+
+    /**
+     * Total size of the column files
+     */
+    private final long fileSize;
+
+    private MappedColumnarDataSet(Instances header, int numRows, ByteBuffer[][] columnSegments, int[] valueSizes,
+                                  ByteBuffer[] weightSegments, long fileSize)
+    {
+        super(header, numRows);
+        this.columnSegments = columnSegments;
+        this.valueSizes = valueSizes;
+        this.weightSegments = weightSegments;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Write the columns of an ARFF file into a directory, reading one instance at a time, then map them.
+     * The class attribute is the last attribute.
+     * @param arffFile
+     * @param directory created if it doesn't exist, existing column files are overwritten
+     * @return
+     * @throws IOException
+     */
+    public static MappedColumnarDataSet create(File arffFile, File directory) throws IOException
+    {
+        if(!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Can't create directory " + directory);
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(arffFile), 1 << 16);
+        DataOutputStream [] columns = null;
+        DataOutputStream weights = null;
+        try
+        {
+            ArffLoader.ArffReader arffReader = new ArffLoader.ArffReader(reader, 1024);
+            Instances structure = arffReader.getStructure();
+            structure.setClassIndex(structure.numAttributes() - 1);
+
+            Writer headerWriter = new FileWriter(new File(directory, HEADER_FILE));
+            try
+            {
+                headerWriter.write(new Instances(structure, 0).toString());
+            }
+            finally
+            {
+                headerWriter.close();
+            }
+
+            int [] valueSizes = valueSizes(structure);
+            columns = new DataOutputStream[structure.numAttributes()];
+            for(int a=0; a<columns.length; a++)
+            {
+                columns[a] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columnFile(directory, a)), 1 << 16));
+            }
+            new File(directory, WEIGHTS_FILE).delete();
+
+            long numRows = 0;
+            Instance instance;
+            while((instance = arffReader.readInstance(structure)) != null)
+            {
+                for(int a=0; a<columns.length; a++)
+                {
+                    double value = instance.value(a);
+                    if(valueSizes[a] == 1)
+                    {
+                        columns[a].writeByte(Instance.isMissingValue(value) ? -1 : (int) value);
+                    }
+                    else if(valueSizes[a] == 2)
+                    {
+                        columns[a].writeShort(Instance.isMissingValue(value) ? -1 : (int) value);
+                    }
+                    else
+                    {
+                        columns[a].writeDouble(value);
+                    }
+                }
+
+                /* The weights are only written once a weight is not 1, the previous rows all weigh 1 */
+                if(weights == null && instance.weight() != 1)
+                {
+                    weights = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, WEIGHTS_FILE)), 1 << 16));
+                    for(long i=0; i<numRows; i++)
+                    {
+                        weights.writeDouble(1);
+                    }
+                }
+                if(weights != null)
+                {
+                    weights.writeDouble(instance.weight());
+                }
+                numRows++;
+                if(numRows > Integer.MAX_VALUE)
+                {
+                    throw new IOException("Too many instances in " + arffFile);
+                }
+            }
+        }
+        finally
+        {
+            if(columns != null)
+            {
+                for(int a=0; a<columns.length; a++)
+                {
+                    if(columns[a] != null)
+                    {
+                        columns[a].close();
+                    }
+                }
+            }
+            if(weights != null)
+            {
+                weights.close();
+            }
+            reader.close();
+        }
+        return open(directory);
+    }
+
+    /**
+     * Map the columns written by create
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    public static MappedColumnarDataSet open(File directory) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new FileReader(new File(directory, HEADER_FILE)));
+        Instances header;
+        try
+        {
+            header = new Instances(reader);
+        }
+        finally
+        {
+            reader.close();
+        }
+        header.setClassIndex(header.numAttributes() - 1);
+
+        int [] valueSizes = valueSizes(header);
+        int numRows = (int) (columnFile(directory, 0).length() / valueSizes[0]);
+        ByteBuffer [][] columnSegments = new ByteBuffer[header.numAttributes()][];
+        long fileSize = 0;
+        for(int a=0; a<header.numAttributes(); a++)
+        {
+            File file = columnFile(directory, a);
+            if(file.length() != (long) numRows * valueSizes[a])
+            {
+                throw new IOException("Column file " + file + " doesn't have " + numRows + " rows");
+            }
+            columnSegments[a] = map(file, valueSizes[a], numRows);
+            fileSize += file.length();
+        }
+
+        ByteBuffer [] weightSegments = null;
+        File weightsFile = new File(directory, WEIGHTS_FILE);
+        if(weightsFile.exists())
+        {
+            weightSegments = map(weightsFile, 8, numRows);
+            fileSize += weightsFile.length();
+        }
+        return new MappedColumnarDataSet(header, numRows, columnSegments, valueSizes, weightSegments, fileSize);
+    }
+
+    /**
+     * Return the number of bytes of a value of each attribute's column
+     * @param header
+     * @return
+     */
+    private static int[] valueSizes(Instances header)
+    {
+        int [] valueSizes = new int[header.numAttributes()];
+        for(int a=0; a<valueSizes.length; a++)
+        {
+            Attribute attribute = header.attribute(a);
+            if(attribute.isNominal() && attribute.numValues() <= Byte.MAX_VALUE)
+            {
+                valueSizes[a] = 1;
+            }
+            else if(attribute.isNominal() && attribute.numValues() <= Short.MAX_VALUE)
+            {
+                valueSizes[a] = 2;
+            }
+            else
+            {
+                valueSizes[a] = 8;
+            }
+        }
+        return valueSizes;
+    }
+
+    private static File columnFile(File directory, int attribute)
+    {
+        return new File(directory, "column" + attribute + ".bin");
+    }
+
+    /**
+     * Map a column file read-only, in segments of 2^SEGMENT_SHIFT rows
+     * @param file
+     * @param valueSize
+     * @param numRows
+     * @return
+     * @throws IOException
+     */
+    private static ByteBuffer[] map(File file, int valueSize, int numRows) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            /* A mapping stays valid after its channel is closed */
+            FileChannel channel = randomAccessFile.getChannel();
+            int numSegments = (int) (((long) numRows + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+            ByteBuffer [] segments = new ByteBuffer[numSegments];
+            for(int i=0; i<numSegments; i++)
+            {
+                long firstRow = (long) i << SEGMENT_SHIFT;
+                long segmentRows = Math.min(1L << SEGMENT_SHIFT, numRows - firstRow);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, firstRow * valueSize, segmentRows * valueSize);
+            }
+            return segments;
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public double value(int row, int attribute)
+    {
+        ByteBuffer segment = columnSegments[attribute][row >>> SEGMENT_SHIFT];
+        int offset = row & SEGMENT_MASK;
+        bytesRead.add(valueSizes[attribute]);
+        if(valueSizes[attribute] == 1)
+        {
+            byte value = segment.get(offset);
+            return value < 0 ? Instance.missingValue() : value;
+        }
+        else if(valueSizes[attribute] == 2)
+        {
+            short value = segment.getShort(offset << 1);
+            return value < 0 ? Instance.missingValue() : value;
+        }
+        else
+        {
+            return segment.getDouble(offset << 3);
+        }
+    }
+
+    @Override
+    public int nominalValue(int row, int attribute)
+    {
+        if(valueSizes[attribute] == 1)
+        {
+            bytesRead.add(1);
+            return columnSegments[attribute][row >>> SEGMENT_SHIFT].get(row & SEGMENT_MASK);
+        }
+        else if(valueSizes[attribute] == 2)
+        {
+            bytesRead.add(2);
+            return columnSegments[attribute][row >>> SEGMENT_SHIFT].getShort((row & SEGMENT_MASK) << 1);
+        }
+        else
+        {
+            double value = value(row, attribute);
+            return Instance.isMissingValue(value) ? -1 : (int) value;
+        }
+    }
+
+    @Override
+    public boolean isMissing(int row, int attribute)
+    {
+        return Instance.isMissingValue(value(row, attribute));
+    }
+
+    @Override
+    public double weight(int row)
+    {
+        if(weightSegments == null)
+        {
+            return 1;
+        }
+        bytesRead.add(8);
+        return weightSegments[row >>> SEGMENT_SHIFT].getDouble((row & SEGMENT_MASK) << 3);
+    }
+
+    @Override
+    public boolean hasUnitWeights()
+    {
+        return weightSegments == null;
+    }
+
+    @Override
+    public boolean isInMemory()
+    {
+        return false;
+    }
+
+    /**
+     * Return the number of bytes of the columns read so far, by every thread. Pages already in memory are counted
+     * as well, so this is what a training run asks of the disk at most.
+     * @return
+     */
+    @Override
+    public long bytesRead()
+    {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Return the size of the column files, none of which is in the heap
+     * @return
+     */
+    @Override
+    public long sizeInBytes()
+    {
+        return fileSize;
+    }
+}
@@ -0,0 +1,377 @@
+package Util;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NoSupportForMissingValuesException;
+import weka.core.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A tree model scored directly from its binary format, usually a memory mapped file, so loading it
+ * costs neither parsing nor heap whatever the size of the tree.
+ *
+ * Layout (big endian), version 1:
+ * - header of 8 ints: magic, version, flags, numClasses, numNodes, numLeaves, classIndex, length of the ARFF header
+ * - the ARFF header of the training data set in UTF-8, padded to a multiple of 8 bytes
+ * - numNodes node records of 32 bytes, breadth first: double splitPoint, double missingWeight,
+ *   int attributeIndex, int firstChild (leaf index for a leaf), int numChilds, int kind
+ * - numLeaves leaf records: double classValue, then numClasses doubles of class distribution
+ */
+public class MappedTreeModel {
+
+    static final int MAGIC = 0x44544D42;
+    static final int VERSION = 1;
+    static final int MISSING_VALUES_AS_WEIGHTS = 1;
+    static final int HEADER_SIZE = 32;
+    static final int NODE_SIZE = 32;
+
+    /**
+     * The model in binary format
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Header of the training data set
+     */
+    private final Instances header;
+
+    private final boolean missingValuesAsWeights;
+    private final int numClasses;
+    private final int numNodes;
+    private final int nodesOffset;
+    private final int leavesOffset;
+
+    /**
+     * Read a model from a buffer holding the binary format, the buffer is used as is and never copied
+     * @param buffer
+     * @throws IOException if the buffer doesn't hold a model of a supported version
+     */
+    public MappedTreeModel(ByteBuffer buffer) throws IOException
+    {
+        this.buffer = buffer;
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a binary tree model");
+        }
+        if(buffer.getInt(4) != VERSION)
+        {
+            throw new IOException("Unsupported binary tree model version " + buffer.getInt(4));
+        }
+        missingValuesAsWeights = (buffer.getInt(8) & MISSING_VALUES_AS_WEIGHTS) != 0;
+        numClasses = buffer.getInt(12);
+        numNodes = buffer.getInt(16);
+        int numLeaves = buffer.getInt(20);
+        int classIndex = buffer.getInt(24);
+        int headerLength = buffer.getInt(28);
+
+        byte [] headerBytes = new byte[headerLength];
+        ByteBuffer headerBuffer = buffer.duplicate();
+        headerBuffer.position(HEADER_SIZE);
+        headerBuffer.get(headerBytes);
+        header = new Instances(new StringReader(new String(headerBytes, StandardCharsets.UTF_8)));
+        header.setClassIndex(classIndex);
+
+        nodesOffset = align(HEADER_SIZE + headerLength);
+        leavesOffset = nodesOffset + numNodes * NODE_SIZE;
+        if((long) leavesOffset + (long) numLeaves * (numClasses + 1) * 8 > buffer.capacity())
+        {
+            throw new IOException("Truncated binary tree model");
+        }
+    }
+
+    /**
+     * Map a model file into memory
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static MappedTreeModel load(File file) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedTreeModel(buffer);
+        }
+        finally
+        {
+            /* The mapping stays valid after the file is closed */
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Round a position up to a multiple of 8 bytes
+     * @param position
+     * @return
+     */
+    static int align(int position)
+    {
+        return (position + 7) & ~7;
+    }
+
+    /**
+     * Return the header of the training data set
+     * @return
+     */
+    public Instances getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * Return the number of nodes of the tree
+     * @return
+     */
+    public int numNodes()
+    {
+        return numNodes;
+    }
+
+    /**
+     * Return the number of class values
+     * @return
+     */
+    public int numClasses()
+    {
+        return numClasses;
+    }
+
+    private int kind(int node)
+    {
+        return buffer.getInt(nodesOffset + node * NODE_SIZE + 28);
+    }
+
+    private double splitPoint(int node)
+    {
+        return buffer.getDouble(nodesOffset + node * NODE_SIZE);
+    }
+
+    private double missingWeight(int node)
+    {
+        return buffer.getDouble(nodesOffset + node * NODE_SIZE + 8);
+    }
+
+    private int attributeIndex(int node)
+    {
+        return buffer.getInt(nodesOffset + node * NODE_SIZE + 16);
+    }
+
+    private int firstChild(int node)
+    {
+        return buffer.getInt(nodesOffset + node * NODE_SIZE + 20);
+    }
+
+    private int numChilds(int node)
+    {
+        return buffer.getInt(nodesOffset + node * NODE_SIZE + 24);
+    }
+
+    private int leafOffset(int leaf)
+    {
+        return leavesOffset + leaf * (numClasses + 1) * 8;
+    }
+
+    /**
+     * Return the child of a node a known value goes to
+     * @param node
+     * @param value
+     * @return
+     */
+    private int child(int node, double value)
+    {
+        if(kind(node) == FlatTree.NUMERIC_SPLIT)
+        {
+            return firstChild(node) + (Utils.smOrEq(value, splitPoint(node)) ? 0 : 1);
+        }
+        else
+        {
+            return firstChild(node) + (int) value;
+        }
+    }
+
+    /**
+     * Find the leaf reached by a row whose values on the path are all known
+     * @param values attribute values, indexed like the training data set's attributes
+     * @return leaf index
+     * @throws NoSupportForMissingValuesException if an attribute used on the path is missing
+     */
+    private int findLeaf(double[] values) throws NoSupportForMissingValuesException {
+        int node = 0;
+        while(kind(node) != FlatTree.LEAF)
+        {
+            double value = values[attributeIndex(node)];
+            if(Instance.isMissingValue(value))
+            {
+                throw new NoSupportForMissingValuesException("The model can't classify missing values!");
+            }
+            node = child(node, value);
+        }
+        return firstChild(node);
+    }
+
+    /**
+     * Add the weighted class distribution of a row in the subtree of a node, a missing value goes down every branch
+     * @param node
+     * @param values
+     * @param weight
+     * @param distribution
+     */
+    private void addDistribution(int node, double[] values, double weight, double[] distribution)
+    {
+        if(kind(node) == FlatTree.LEAF)
+        {
+            int offset = leafOffset(firstChild(node)) + 8;
+            for(int j=0; j<numClasses; j++)
+            {
+                distribution[j] += weight * buffer.getDouble(offset + j * 8);
+            }
+        }
+        else
+        {
+            double value = values[attributeIndex(node)];
+            if(Instance.isMissingValue(value))
+            {
+                int first = firstChild(node);
+                for(int i=0; i<numChilds(node); i++)
+                {
+                    addDistribution(first + i, values, missingWeight(first + i) * weight, distribution);
+                }
+            }
+            else
+            {
+                addDistribution(child(node, value), values, weight, distribution);
+            }
+        }
+    }
+
+    /**
+     * Compute the class distribution of a row into a caller supplied array
+     * @param values attribute values, indexed like the training data set's attributes
+     * @param distribution array of numClasses values, overwritten
+     * @throws NoSupportForMissingValuesException
+     */
+    public void distribution(double[] values, double[] distribution) throws NoSupportForMissingValuesException {
+        if(missingValuesAsWeights)
+        {
+            Arrays.fill(distribution, 0);
+            addDistribution(0, values, 1, distribution);
+        }
+        else
+        {
+            int offset = leafOffset(findLeaf(values)) + 8;
+            for(int j=0; j<numClasses; j++)
+            {
+                distribution[j] = buffer.getDouble(offset + j * 8);
+            }
+        }
+    }
+
+    /**
+     * Classify a row
+     * @param values attribute values, indexed like the training data set's attributes
+     * @param distribution array of numClasses values used as buffer
+     * @return class value
+     * @throws NoSupportForMissingValuesException
+     */
+    public double classify(double[] values, double[] distribution) throws NoSupportForMissingValuesException {
+        if(missingValuesAsWeights)
+        {
+            distribution(values, distribution);
+            return maxClass(distribution);
+        }
+        else
+        {
+            return buffer.getDouble(leafOffset(findLeaf(values)));
+        }
+    }
+
+    /**
+     * Classify an instance
+     * @param instance
+     * @return class value
+     * @throws NoSupportForMissingValuesException
+     */
+    public double classifyInstance(Instance instance) throws NoSupportForMissingValuesException {
+        return classify(instance.toDoubleArray(), new double[numClasses]);
+    }
+
+    /**
+     * Return the class distribution of an instance
+     * @param instance
+     * @return
+     * @throws NoSupportForMissingValuesException
+     */
+    public double[] distributionForInstance(Instance instance) throws NoSupportForMissingValuesException {
+        double [] distribution = new double[numClasses];
+        distribution(instance.toDoubleArray(), distribution);
+        return distribution;
+    }
+
+    /**
+     * Classify a batch of rows, in blocks spread over several threads
+     * @param rows attribute values of each row, indexed like the training data set's attributes
+     * @param classes receives the class value of each row
+     * @param numThreads
+     * @throws Exception
+     */
+    public void classifyBatch(final double[][] rows, final double[] classes, int numThreads) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) throws Exception {
+                double [] distribution = new double[numClasses];
+                for(int i=from; i<to; i++)
+                {
+                    classes[i] = classify(rows[i], distribution);
+                }
+            }
+        }.score(rows.length, numThreads);
+    }
+
+    /**
+     * Compute the class distribution of a batch of rows, in blocks spread over several threads
+     * @param rows attribute values of each row, indexed like the training data set's attributes
+     * @param distributions receives the class distribution of each row
+     * @param numThreads
+     * @throws Exception
+     */
+    public void distributionBatch(final double[][] rows, final double[][] distributions, int numThreads) throws Exception {
+        new BatchScorer() {
+            @Override
+            protected void scoreBlock(int from, int to) throws Exception {
+                for(int i=from; i<to; i++)
+                {
+                    distribution(rows[i], distributions[i]);
+                }
+            }
+        }.score(rows.length, numThreads);
+    }
+
+    /**
+     * Return the class with the highest probability, the first one on ties like MyJ48
+     * @param distribution
+     * @return
+     */
+    private static double maxClass(double[] distribution) {
+        double maxProbability = Double.MAX_VALUE * -1;
+        int maxIndex = 0;
+
+        for (int j = 0; j < distribution.length; j++) {
+            if (Utils.gr(distribution[j],maxProbability)) {
+                maxIndex = j;
+                maxProbability = distribution[j];
+            }
+        }
+        return maxIndex;
+    }
+}
@@ -0,0 +1,155 @@
+package Util;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cross-validation with the folds trained and tested concurrently, each fold on its own copy of the classifier.
+ * A FoldTrainable classifier trains every fold at once instead, and only the folds' tests run concurrently.
+ * The predictions are then recorded fold after fold in the same order as Evaluation.crossValidateModel, so the
+ * resulting evaluation is identical to the sequential one for the same seed.
+ */
+public class ParallelCrossValidation {
+
+    /**
+     * Cross-validate a classifier into an evaluation, like Evaluation.crossValidateModel
+     * @param evaluation evaluation receiving the predictions of every fold
+     * @param classifier untrained classifier, only copies of it are trained
+     * @param dataSet
+     * @param numFolds
+     * @param random
+     * @param numThreads number of folds trained at the same time, 1 trains them one after another in the calling thread
+     * @throws Exception the first exception thrown while training or testing a fold
+     */
+    public static void crossValidateModel(Evaluation evaluation, Classifier classifier, Instances dataSet,
+                                          int numFolds, Random random, int numThreads) throws Exception
+    {
+        /* Split the folds exactly as Evaluation.crossValidateModel, trainCV consumes the random generator */
+        Instances data = new Instances(dataSet);
+        data.randomize(random);
+        if(data.classAttribute().isNominal())
+        {
+            data.stratify(numFolds);
+        }
+
+        final Instances [] trainSets = new Instances[numFolds];
+        final Instances [] testSets = new Instances[numFolds];
+        final double [][][] predictions = new double[numFolds][][];
+        for(int i=0; i<numFolds; i++)
+        {
+            trainSets[i] = data.trainCV(numFolds, i, random);
+            testSets[i] = data.testCV(numFolds, i);
+        }
+
+        Classifier [] foldClassifiers = null;
+        if(classifier instanceof FoldTrainable)
+        {
+            foldClassifiers = ((FoldTrainable) classifier).buildFoldClassifiers(data, numFolds);
+        }
+        final boolean trained = foldClassifiers != null;
+        final Classifier [] copies = trained ? foldClassifiers : Classifier.makeCopies(classifier, numFolds);
+
+        if(numThreads <= 1)
+        {
+            for(int i=0; i<numFolds; i++)
+            {
+                predictions[i] = runFold(copies[i], trained, trainSets[i], testSets[i]);
+            }
+        }
+        else
+        {
+            final Exception [] failure = new Exception[1];
+            List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+            for(int i=0; i<numFolds; i++)
+            {
+                final int fold = i;
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        try
+                        {
+                            predictions[fold] = runFold(copies[fold], trained, trainSets[fold], testSets[fold]);
+                        }
+                        catch (Exception e)
+                        {
+                            synchronized (failure)
+                            {
+                                if(failure[0] == null)
+                                {
+                                    failure[0] = e;
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(Math.min(numThreads, numFolds));
+            try
+            {
+                Util.invokeAll(pool, tasks);
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+            if(failure[0] != null)
+            {
+                throw failure[0];
+            }
+        }
+
+        /* The priors of each fold weigh its predictions, so the folds are recorded in order */
+        for(int i=0; i<numFolds; i++)
+        {
+            evaluation.setPriors(trainSets[i]);
+            for(int j=0; j<testSets[i].numInstances(); j++)
+            {
+                evaluation.evaluateModelOnceAndRecordPrediction(predictions[i][j], testSets[i].instance(j));
+            }
+        }
+    }
+
+    /**
+     * Train a classifier on a fold and predict its test set
+     * @param classifier
+     * @param trained whether the classifier is already trained on the fold
+     * @param trainSet
+     * @param testSet
+     * @return class distribution of each test instance, or the predicted value if the class is numeric
+     * @throws Exception
+     */
+    private static double[][] runFold(Classifier classifier, boolean trained, Instances trainSet, Instances testSet) throws Exception
+    {
+        if(!trained)
+        {
+            classifier.buildClassifier(trainSet);
+        }
+
+        double [][] predictions = new double[testSet.numInstances()][];
+        for(int j=0; j<testSet.numInstances(); j++)
+        {
+            /* Like Evaluation, the classifier never sees the class value of a test instance */
+            Instance classMissing = (Instance) testSet.instance(j).copy();
+            classMissing.setDataset(testSet);
+            classMissing.setClassMissing();
+            if(testSet.classAttribute().isNominal())
+            {
+                predictions[j] = classifier.distributionForInstance(classMissing);
+            }
+            else
+            {
+                predictions[j] = new double[] {classifier.classifyInstance(classMissing)};
+            }
+        }
+        return predictions;
+    }
+}
@@ -0,0 +1,186 @@
+package Util;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Collapse identical rows of a data set, class included, into a single instance weighted by the sum of their weights.
+ * Learners that count weights (MyId3, MyJ48) grow the same tree from the collapsed data set, with one row per
+ * distinct combination of values instead of one row per copy. MyJ48 also needs the number of copies of each row,
+ * for its checks on the number of instances of a node.
+ */
+public class RowDeduplicator {
+
+    /**
+     * The values of a row as a hash key, missing values are equal to each other
+     */
+    private static class Row {
+
+        private final double[] values;
+        private final int hash;
+
+        Row(double[] values)
+        {
+            this.values = values;
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Row && Arrays.equals(values, ((Row) other).values);
+        }
+    }
+
+    /**
+     * The collapsed data set, NULL if the rows were given as columns
+     */
+    private final Instances dataSet;
+
+    /**
+     * The collapsed columnar data set, NULL if the rows were given as instances
+     */
+    private final ColumnarDataSet columns;
+
+    /**
+     * Number of instances collapsed into each row of the collapsed data set, NULL if all the rows were distinct
+     */
+    private final int[] counts;
+
+    /**
+     * Collapse the identical rows of a data set. Every distinct row is kept once, at its first position,
+     * with the total weight of its copies.
+     * @param dataSet
+     */
+    public RowDeduplicator(Instances dataSet)
+    {
+        HashMap<Row, Integer> positions = new HashMap<Row, Integer>();
+        List<Instance> distinctRows = new ArrayList<Instance>();
+        double [] weights = new double[dataSet.numInstances()];
+        int [] rowCounts = new int[dataSet.numInstances()];
+
+        columns = null;
+        for(int i=0; i<dataSet.numInstances(); i++)
+        {
+            Instance instance = dataSet.instance(i);
+            Row row = new Row(instance.toDoubleArray());
+            Integer position = positions.get(row);
+            if(position == null)
+            {
+                position = distinctRows.size();
+                positions.put(row, position);
+                distinctRows.add(instance);
+            }
+            weights[position] += instance.weight();
+            rowCounts[position]++;
+        }
+
+        if(distinctRows.size() == dataSet.numInstances())
+        {
+            this.dataSet = dataSet;
+            counts = null;
+            return;
+        }
+
+        Instances result = new Instances(dataSet, distinctRows.size());
+        for(int i=0; i<distinctRows.size(); i++)
+        {
+            /* add() stores a copy, its weight can be changed */
+            result.add(distinctRows.get(i));
+            result.instance(i).setWeight(weights[i]);
+        }
+        this.dataSet = result;
+        counts = Arrays.copyOf(rowCounts, distinctRows.size());
+    }
+
+    /**
+     * Collapse the identical rows of a columnar data set, like for instances
+     * @param columns
+     */
+    public RowDeduplicator(ColumnarDataSet columns)
+    {
+        HashMap<Row, Integer> positions = new HashMap<Row, Integer>();
+        int [] distinctRows = new int[columns.numRows()];
+        double [] weights = new double[columns.numRows()];
+        int [] rowCounts = new int[columns.numRows()];
+        int numDistinct = 0;
+
+        dataSet = null;
+        for(int i=0; i<columns.numRows(); i++)
+        {
+            double [] values = new double[columns.numAttributes()];
+            for(int a=0; a<values.length; a++)
+            {
+                values[a] = columns.value(i, a);
+            }
+            Row row = new Row(values);
+            Integer position = positions.get(row);
+            if(position == null)
+            {
+                position = numDistinct;
+                positions.put(row, position);
+                distinctRows[numDistinct] = i;
+                numDistinct++;
+            }
+            weights[position] += columns.weight(i);
+            rowCounts[position]++;
+        }
+
+        if(numDistinct == columns.numRows())
+        {
+            this.columns = columns;
+            counts = null;
+            return;
+        }
+        this.columns = columns.subset(Arrays.copyOf(distinctRows, numDistinct), Arrays.copyOf(weights, numDistinct));
+        counts = Arrays.copyOf(rowCounts, numDistinct);
+    }
+
+    /**
+     * Return the collapsed data set, the data set itself if all its rows are distinct
+     * @return
+     */
+    public Instances getDataSet()
+    {
+        return dataSet;
+    }
+
+    /**
+     * Return the collapsed columnar data set, the data set itself if all its rows are distinct
+     * @return
+     */
+    public ColumnarDataSet getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * Return the number of instances collapsed into each row of the collapsed data set, NULL if all the rows were distinct
+     * @return
+     */
+    public int[] getCounts()
+    {
+        return counts;
+    }
+
+    /**
+     * Collapse the identical rows of a data set
+     * @param dataSet
+     * @return the collapsed data set, or the data set itself if all its rows are distinct
+     */
+    public static Instances deduplicate(Instances dataSet)
+    {
+        return new RowDeduplicator(dataSet).getDataSet();
+    }
+}
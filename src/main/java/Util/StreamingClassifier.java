@@ -0,0 +1,237 @@
+package Util;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classify an ARFF file of any size. The instances are read a batch at a time, the batches are classified by
+ * several threads and the labeled batches are written in the input order, so only a few batches are ever in memory.
+ * The classifier is shared by the threads, its classification must not modify it (true for MyId3, MyJ48 and
+ * the Weka trees).
+ */
+public class StreamingClassifier {
+
+    /**
+     * Default number of instances read and classified together
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final Classifier classifier;
+
+    /**
+     * Number of threads classifying the batches, 1 classifies them in the calling thread
+     */
+    private final int numThreads;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Number of instances classified so far by the current or last run
+     */
+    private final AtomicLong numClassified = new AtomicLong();
+
+    /**
+     * Start and end of the current or last run in nanoseconds, the end is 0 while running
+     */
+    private volatile long startTime;
+    private volatile long endTime;
+
+    /**
+     * @param classifier trained classifier
+     * @param numThreads number of threads classifying the batches
+     */
+    public StreamingClassifier(Classifier classifier, int numThreads)
+    {
+        this.classifier = classifier;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Classify every instance of an ARFF file and write them labeled to another ARFF file.
+     * The class attribute is the last attribute.
+     * @param input
+     * @param output
+     * @throws Exception
+     */
+    public void classify(File input, File output) throws Exception
+    {
+        numClassified.set(0);
+        startTime = System.nanoTime();
+        endTime = 0;
+
+        BufferedReader reader = new BufferedReader(new FileReader(input), 1 << 16);
+        BufferedWriter writer = null;
+        ForkJoinPool pool = null;
+        try
+        {
+            ArffLoader.ArffReader arffReader = new ArffLoader.ArffReader(reader, batchSize);
+            Instances structure = arffReader.getStructure();
+            structure.setClassIndex(structure.numAttributes() - 1);
+
+            writer = new BufferedWriter(new FileWriter(output), 1 << 16);
+            writer.write(structure.toString());
+
+            Instance [] batch;
+            if(numThreads <= 1)
+            {
+                while((batch = readBatch(arffReader, structure)) != null)
+                {
+                    writer.write(classifyBatch(batch));
+                }
+            }
+            else
+            {
+                /* Enough batches in flight to keep every thread busy, the oldest one is written first */
+                pool = new ForkJoinPool(numThreads);
+                ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+                while((batch = readBatch(arffReader, structure)) != null)
+                {
+                    if(pending.size() >= 2 * numThreads)
+                    {
+                        writer.write(result(pending.removeFirst()));
+                    }
+                    final Instance [] rows = batch;
+                    pending.addLast(pool.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return classifyBatch(rows);
+                        }
+                    }));
+                }
+                while(!pending.isEmpty())
+                {
+                    writer.write(result(pending.removeFirst()));
+                }
+            }
+        }
+        finally
+        {
+            if(pool != null)
+            {
+                pool.shutdownNow();
+            }
+            if(writer != null)
+            {
+                writer.close();
+            }
+            reader.close();
+            endTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Read the next batch of instances
+     * @param arffReader
+     * @param structure
+     * @return the instances read, NULL at the end of the file
+     * @throws Exception
+     */
+    private Instance[] readBatch(ArffLoader.ArffReader arffReader, Instances structure) throws Exception
+    {
+        Instance [] batch = new Instance[batchSize];
+        int numRead = 0;
+        Instance instance;
+        while(numRead < batchSize && (instance = arffReader.readInstance(structure)) != null)
+        {
+            batch[numRead] = instance;
+            numRead++;
+        }
+        if(numRead == 0)
+        {
+            return null;
+        }
+        return numRead < batchSize ? Arrays.copyOf(batch, numRead) : batch;
+    }
+
+    /**
+     * Classify a batch of instances
+     * @param batch
+     * @return the labeled instances in ARFF format, one per line
+     * @throws Exception
+     */
+    private String classifyBatch(Instance[] batch) throws Exception
+    {
+        StringBuilder text = new StringBuilder(batch.length * 64);
+        for(int i=0; i<batch.length; i++)
+        {
+            batch[i].setClassValue(classifier.classifyInstance(batch[i]));
+            text.append(batch[i]).append('\n');
+        }
+        numClassified.addAndGet(batch.length);
+        return text.toString();
+    }
+
+    /**
+     * Wait for a batch to be classified
+     * @param future
+     * @return
+     * @throws Exception the exception thrown while classifying the batch
+     */
+    private static String result(Future<String> future) throws Exception
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            if(e.getCause() instanceof Exception)
+            {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Set the number of instances read and classified together
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Return the number of instances read and classified together
+     * @return
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Return the number of instances classified so far, can be read from another thread while classifying
+     * @return
+     */
+    public long getNumClassified()
+    {
+        return numClassified.get();
+    }
+
+    /**
+     * Return the number of instances classified per second so far
+     * @return
+     */
+    public double getThroughput()
+    {
+        long end = endTime == 0 ? System.nanoTime() : endTime;
+        return end > startTime ? numClassified.get() * 1e9 / (end - startTime) : 0;
+    }
+}
@@ -14,11 +14,13 @@ import weka.filters.Filter;
 import weka.filters.supervised.instance.Resample;
 import weka.filters.unsupervised.attribute.Remove;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by timothy.pratama on 16-Sep-15.
@@ -178,11 +180,24 @@ public class Util {
      * @return Evaluasi hasil pengujian Classifier
      */
     public static Evaluation crossValidationTest(Instances dataSet, Classifier untrainedClassifier)
+    {
+        return crossValidationTest(dataSet, untrainedClassifier, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Fungsi untuk melakukan 10 folds cross-validation dengan beberapa fold dilatih dan diuji secara paralel
+     * Hasil evaluasi sama persis dengan cross-validation sekuensial (seed yang sama)
+     * @param dataSet Data latih yang akan digunakan untuk pengujian Classifier
+     * @param untrainedClassifier Model Classifier yang akan diuji, setiap fold memakai salinannya sendiri
+     * @param numThreads Jumlah thread, 1 berarti fold dijalankan satu per satu
+     * @return Evaluasi hasil pengujian Classifier
+     */
+    public static Evaluation crossValidationTest(Instances dataSet, Classifier untrainedClassifier, int numThreads)
     {
         try
         {
             Evaluation eval = new Evaluation(dataSet);
-            eval.crossValidateModel(untrainedClassifier, dataSet, 10, new Random(1));
+            ParallelCrossValidation.crossValidateModel(eval, untrainedClassifier, dataSet, 10, new Random(1), numThreads);
             return eval;
         }
 
@@ -261,26 +276,91 @@ public class Util {
         return null;
     }
 
-    public static void classify(String filename, Classifier classifier)
+    /**
+     * Fungsi ini digunakan untuk menyimpan pohon dalam format biner ringkas (tanpa data latih)
+     * @param filename Nama file untuk menyimpan model
+     * @param tree Pohon hasil MyId3.flatten() atau MyJ48.flatten()
+     */
+    public static void saveBinaryModel(String filename, FlatTree tree)
     {
         try
         {
-            Instances input = readARFF(filename);
-            input.setClassIndex(input.numAttributes()-1);
-            for(int i=0; i<input.numInstances(); i++)
-            {
-                double classLabel = classifier.classifyInstance(input.instance(i));
-                input.instance(i).setClassValue(classLabel);
-                System.out.println("Instance: " + input.instance(i));
-                System.out.println("Class: " + input.classAttribute().value((int)classLabel));
-            }
+            tree.write(new File(pathSavedModel + filename));
+        }
+
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Fungsi ini digunakan untuk memetakan model biner ke memori, model langsung dapat dipakai tanpa deserialisasi
+     * @param filename nama file yang menyimpan model biner
+     * @return Model yang siap dipakai untuk klasifikasi
+     */
+    public static MappedTreeModel loadBinaryModel(String filename)
+    {
+        try
+        {
+            return MappedTreeModel.load(new File(pathSavedModel + filename));
+        }
 
-            BufferedWriter writer = new BufferedWriter(
-            new FileWriter(pathClassifyResult + "labeled." + filename));
-            writer.write(input.toString());
-            writer.newLine();
-            writer.flush();
-            writer.close();
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Fungsi ini digunakan untuk menjalankan beberapa task secara paralel di dalam sebuah pool
+     * Jika thread pemanggil sudah berada di dalam pool, task dijalankan langsung (fork-join bersarang)
+     * @param pool Pool yang menjalankan task
+     * @param tasks Task yang akan dijalankan
+     */
+    public static void invokeAll(ForkJoinPool pool, final List<RecursiveAction> tasks)
+    {
+        if(ForkJoinTask.getPool() == pool)
+        {
+            ForkJoinTask.invokeAll(tasks);
+        }
+        else
+        {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fungsi ini digunakan untuk mengklasifikasi semua instance dari file ARFF dan menyimpan hasilnya
+     * @param filename Nama file yang berisi instance yang akan diklasifikasi
+     * @param classifier Classifier yang sudah dilatih
+     */
+    public static void classify(String filename, Classifier classifier)
+    {
+        classify(filename, classifier, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Fungsi ini digunakan untuk mengklasifikasi file ARFF secara streaming (per batch, memori konstan)
+     * Batch diklasifikasi oleh beberapa thread dan ditulis sesuai urutan input
+     * @param filename Nama file yang berisi instance yang akan diklasifikasi
+     * @param classifier Classifier yang sudah dilatih
+     * @param numThreads Jumlah thread, 1 berarti klasifikasi dilakukan di thread pemanggil
+     */
+    public static void classify(String filename, Classifier classifier, int numThreads)
+    {
+        try
+        {
+            StreamingClassifier streamingClassifier = new StreamingClassifier(classifier, numThreads);
+            streamingClassifier.classify(new File(pathDataSet + filename), new File(pathClassifyResult + "labeled." + filename));
+            System.out.println("Classified " + streamingClassifier.getNumClassified() + " instances ("
+                    + Math.round(streamingClassifier.getThroughput()) + " instances/s)");
         }
 
         catch (Exception e)
@@ -0,0 +1,80 @@
+package MyId3;
+
+import Util.DataGenerator;
+import Util.TreeAssert;
+import Util.Util;
+import org.junit.Test;
+import weka.core.Instances;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MyId3Test {
+
+    private static MyId3 build(Instances dataSet, boolean deduplicateRows, boolean useBitmapIndex) throws Exception {
+        MyId3 tree = new MyId3();
+        tree.setDeduplicateRows(deduplicateRows);
+        tree.setUseBitmapIndex(useBitmapIndex);
+        tree.buildClassifier(dataSet);
+        return tree;
+    }
+
+    /**
+     * Collapsing the rows, the bitmap index and both options together build the same tree as the plain build
+     * @param dataSet
+     * @throws Exception
+     */
+    private static void assertSameTrees(Instances dataSet) throws Exception {
+        MyId3 plain = build(dataSet, false, false);
+        for(int i=1; i<4; i++)
+        {
+            MyId3 tree = build(dataSet, (i & 1) != 0, (i & 2) != 0);
+            assertEquals(plain.toString(), tree.toString());
+            TreeAssert.assertSameTree(plain.flatten(), tree.flatten(), 0);
+        }
+    }
+
+    @Test
+    public void sameTreesOnReplicatedWeather() throws Exception {
+        assertSameTrees(TreeAssert.replicate(Util.readARFF("weather.nominal.arff"), 2000, 1));
+    }
+
+    @Test
+    public void sameTreesOnLowCardinalityData() throws Exception {
+        DataGenerator generator = new DataGenerator();
+        generator.setNumRows(20000);
+        generator.setNumNominalAttributes(6);
+        generator.setNumNumericAttributes(0);
+        generator.setMinCardinality(2);
+        generator.setMaxCardinality(3);
+        generator.setNumClasses(3);
+        generator.setMissingRate(0);
+        generator.setLabelNoise(0.1);
+        generator.setConceptDepth(4);
+        generator.setSeed(1);
+        assertSameTrees(generator.generate());
+    }
+
+    /**
+     * A budget of 0 disables the lookup table, also for a tree that is a single leaf
+     */
+    @Test
+    public void zeroBudgetDisablesLookupTable() throws Exception {
+        Instances weather = Util.readARFF("weather.nominal.arff");
+        Instances singleClass = new Instances(weather);
+        for(int i=0; i<singleClass.numInstances(); i++)
+        {
+            singleClass.instance(i).setClassValue(0);
+        }
+
+        for(Instances dataSet : new Instances[] {weather, singleClass})
+        {
+            MyId3 tree = new MyId3();
+            tree.buildClassifier(dataSet);
+            assertTrue(tree.compile().hasLookupTable());
+            tree.setLookupTableBudget(0);
+            assertFalse(tree.compile().hasLookupTable());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package MyJ48;
+
+import Util.ColumnarDataSet;
+import Util.MappedColumnarDataSet;
+import Util.TreeAssert;
+import Util.Util;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.WekaException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MyJ48Test {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Bytes allocated so far by the current thread
+     * @return
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void classifyAll(MyJ48 tree, Instance[] instances, double[] distribution, int rounds) {
+        for(int r=0; r<rounds; r++)
+        {
+            for(int i=0; i<instances.length; i++)
+            {
+                tree.distributionForInstance(instances[i], distribution);
+            }
+        }
+    }
+
+    /**
+     * The buffered distributionForInstance allocates nothing, missing values included, from the first call on
+     * a freshly trained tree: the missing value weights must be computed by the training, not lazily.
+     */
+    @Test
+    public void bufferedDistributionAllocatesNothing() throws Exception {
+        Instances dataSet = Util.readARFF("iris.missing.arff");
+        Instance [] instances = new Instance[dataSet.numInstances()];
+        int numMissing = 0;
+        for(int i=0; i<instances.length; i++)
+        {
+            instances[i] = dataSet.instance(i);
+            if(instances[i].hasMissingValue())
+            {
+                numMissing++;
+            }
+        }
+        assertTrue(numMissing > 0);
+        double [] distribution = new double[dataSet.numClasses()];
+
+        /* Warm up the classification code on another tree */
+        MyJ48 warmUp = new MyJ48();
+        warmUp.buildClassifier(dataSet);
+        classifyAll(warmUp, instances, distribution, 2000);
+
+        MyJ48 tree = new MyJ48();
+        tree.buildClassifier(dataSet);
+        long before = allocatedBytes();
+        long overhead = allocatedBytes() - before;
+
+        before = allocatedBytes();
+        classifyAll(tree, instances, distribution, 100);
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(overhead, allocated);
+    }
+
+    private static MyJ48 build(Instances dataSet, boolean deduplicateRows, int numHistogramBins) throws Exception {
+        MyJ48 tree = new MyJ48();
+        tree.setDeduplicateRows(deduplicateRows);
+        tree.setNumHistogramBins(numHistogramBins);
+        tree.setHistogramMinRows(100);
+        tree.buildClassifier(dataSet);
+        return tree;
+    }
+
+    /**
+     * Collapsing the rows builds the same tree, with the exact and the binned split search.
+     * With missing values the fractional weights are summed in another order, the distributions may differ by rounding.
+     * @param dataSet
+     * @throws Exception
+     */
+    private static void assertSameTreeDeduplicated(Instances dataSet) throws Exception {
+        for(int numHistogramBins = 0; numHistogramBins <= 16; numHistogramBins += 16)
+        {
+            MyJ48 plain = build(dataSet, false, numHistogramBins);
+            MyJ48 deduplicated = build(dataSet, true, numHistogramBins);
+            TreeAssert.assertSameTree(plain.flatten(), deduplicated.flatten(), 1e-9);
+        }
+    }
+
+    @Test
+    public void sameTreeDeduplicatedNumeric() throws Exception {
+        assertSameTreeDeduplicated(TreeAssert.replicate(Util.readARFF("iris.arff"), 3000, 1));
+    }
+
+    @Test
+    public void sameTreeDeduplicatedWithMissingValues() throws Exception {
+        assertSameTreeDeduplicated(TreeAssert.replicate(Util.readARFF("iris.missing.arff"), 3000, 2));
+        assertSameTreeDeduplicated(TreeAssert.replicate(Util.readARFF("weather.nominal.missing.arff"), 2000, 3));
+    }
+
+    /**
+     * Write a data set to an ARFF file and map its columns
+     * @param dataSet
+     * @return
+     * @throws IOException
+     */
+    private MappedColumnarDataSet map(Instances dataSet) throws IOException {
+        File arffFile = folder.newFile("data.arff");
+        Writer writer = new FileWriter(arffFile);
+        try
+        {
+            writer.write(dataSet.toString());
+        }
+        finally
+        {
+            writer.close();
+        }
+        return MappedColumnarDataSet.create(arffFile, folder.newFolder("columns"));
+    }
+
+    @Test
+    public void sameTreeFromMappedColumns() throws Exception {
+        Instances dataSet = TreeAssert.replicate(Util.readARFF("weather.nominal.missing.arff"), 2000, 4);
+        MappedColumnarDataSet columns = map(dataSet);
+        MyJ48 inMemory = new MyJ48();
+        inMemory.buildClassifier(new ColumnarDataSet(dataSet));
+        MyJ48 mapped = new MyJ48();
+        mapped.buildClassifier(columns);
+
+        assertEquals(inMemory.toString(), mapped.toString());
+        TreeAssert.assertSameTree(inMemory.flatten(), mapped.flatten(), 0);
+        assertTrue(mapped.getIoStatistics().getLevelBytes(0) > 0);
+        assertEquals(columns.bytesRead(), mapped.getIoStatistics().getTotalBytes());
+    }
+
+    @Test(expected = WekaException.class)
+    public void numericMappedColumnsAreRejected() throws Exception {
+        new MyJ48().buildClassifier(map(Util.readARFF("iris.arff")));
+    }
+
+    /**
+     * A batch large enough to be scored by several tasks classifies every row like classifyInstance
+     */
+    @Test
+    public void parallelBatchMatchesSingleRows() throws Exception {
+        Instances dataSet = TreeAssert.replicate(Util.readARFF("iris.missing.arff"), 20000, 5);
+        MyJ48 tree = new MyJ48();
+        tree.setNumExecutionSlots(4);
+        tree.buildClassifier(dataSet);
+
+        double [][] rows = new double[dataSet.numInstances()][];
+        double [] expected = new double[rows.length];
+        for(int i=0; i<rows.length; i++)
+        {
+            rows[i] = dataSet.instance(i).toDoubleArray();
+            expected[i] = tree.classifyInstance(dataSet.instance(i));
+        }
+        double [] classes = new double[rows.length];
+        tree.classifyBatch(rows, classes);
+        assertArrayEquals(expected, classes, 0);
+    }
+}
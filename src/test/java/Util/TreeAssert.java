@@ -0,0 +1,59 @@
+package Util;
+
+import weka.core.Instances;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Helpers for the tests comparing trees built in different ways
+ */
+public class TreeAssert {
+
+    /**
+     * Draw rows of a data set at random, so most rows of the result are copies of each other
+     * @param dataSet
+     * @param numRows
+     * @param seed
+     * @return
+     */
+    public static Instances replicate(Instances dataSet, int numRows, long seed)
+    {
+        Random random = new Random(seed);
+        Instances result = new Instances(dataSet, numRows);
+        for(int i=0; i<numRows; i++)
+        {
+            result.add(dataSet.instance(random.nextInt(dataSet.numInstances())));
+        }
+        return result;
+    }
+
+    /**
+     * Check that two flattened trees have the same nodes, splits and leaf classes, and the same leaf
+     * distributions and missing value weights up to delta
+     * @param expected
+     * @param actual
+     * @param delta
+     */
+    public static void assertSameTree(FlatTree expected, FlatTree actual, double delta)
+    {
+        assertArrayEquals(expected.kind, actual.kind);
+        assertArrayEquals(expected.attributeIndex, actual.attributeIndex);
+        assertArrayEquals(expected.firstChild, actual.firstChild);
+        assertArrayEquals(expected.numChilds, actual.numChilds);
+        assertArrayEquals(expected.splitPoint, actual.splitPoint, 0);
+        assertArrayEquals(expected.leafClass, actual.leafClass, 0);
+        assertEquals(expected.leafDistribution.length, actual.leafDistribution.length);
+        assertArrayEquals(expected.leafDistribution, actual.leafDistribution, delta);
+        if(expected.missingWeight == null || actual.missingWeight == null)
+        {
+            assertEquals(expected.missingWeight, actual.missingWeight);
+        }
+        else
+        {
+            assertArrayEquals(expected.missingWeight, actual.missingWeight, delta);
+        }
+    }
+}